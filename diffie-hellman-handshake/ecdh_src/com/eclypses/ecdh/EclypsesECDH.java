@@ -8,10 +8,18 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
 
 
 public class EclypsesECDH {
@@ -30,31 +38,148 @@ public class EclypsesECDH {
   private final boolean DEBUG = true;
   private boolean logging;
   private KeyPair kp;
+  private EclypsesKeyPairPool keyPairPool;
+  private Mode mode;
+  
+  /**
+   * Key agreement used by an instance.
+   * P256 exchanges X.509 (DER) encoded public keys,
+   * X25519 exchanges 32 byte raw public keys.
+   */
+  public enum Mode {
+    P256("EC", "ECDH"),
+    X25519("X25519", "X25519");
+    
+    final String keyAlgorithm;
+    final String agreementAlgorithm;
+    
+    Mode(String keyAlgorithm, String agreementAlgorithm) {
+      this.keyAlgorithm = keyAlgorithm;
+      this.agreementAlgorithm = agreementAlgorithm;
+    }
+    
+    KeyPairGenerator newKeyPairGenerator() throws NoSuchAlgorithmException {
+      KeyPairGenerator kpg = KeyPairGenerator.getInstance(keyAlgorithm);
+      if (this == P256)
+        kpg.initialize(256);
+      return kpg;
+    }
+  }
+  
+  //-----------------------------------------------------------------
+  // An X25519 public key in X.509 format is this fixed prefix
+  // followed by the 32 byte raw key, see RFC 8410.
+  //-----------------------------------------------------------------
+  private static final byte[] X25519_X509_PREFIX = {
+    0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00
+  };
+  private static final int X25519_KEY_LENGTH = 32;
+  
+  /**
+   * Length of the secret created by createSharedSecret (SHA-256).
+   */
+  public static final int SHARED_SECRET_LENGTH = 32;
+  
+  //--------------------------------------------------------------------
+  // JCA primitives are cached per thread because getInstance() does a
+  // provider lookup and an allocation on every call. The KeyFactory is
+  // stateless, the KeyAgreement is reset by init(), the MessageDigest
+  // is reset by digest() and the Mac by init(), so each can be reused.
+  //
+  // What cannot be cleared: the KeyAgreement keeps a reference to the
+  // last private key until its next init(), and the provider's own
+  // copies (the private key scalar, the raw secret inside the
+  // agreement and the key bytes a SecretKeySpec copies) are not
+  // reachable from here. Only our own buffers are zeroed, and the Mac
+  // is re-keyed with HMAC_RESET_KEY after use so it does not hold the
+  // HKDF pseudorandom key while it sits in the cache.
+  //--------------------------------------------------------------------
+  private static final class Primitives {
+    KeyFactory keyFactory;
+    KeyAgreement keyAgreement;
+    MessageDigest digest;
+    Mac hmac;
+    //--------------------------------------------------------------
+    // Scratch space for the raw agreement (large enough for any NIST
+    // curve) and for secrets headed to a direct buffer. Both are
+    // zeroed as soon as the secret has been derived.
+    //--------------------------------------------------------------
+    final byte[] secret = new byte[66];
+    final byte[] output = new byte[SHARED_SECRET_LENGTH];
+  }
+  private static final SecretKeySpec HMAC_RESET_KEY =
+      new SecretKeySpec(new byte[EclypsesHKDF.HASH_LENGTH], EclypsesHKDF.ALGORITHM);
+  private static final ThreadLocal<Primitives[]> primitives =
+      ThreadLocal.withInitial(() -> new Primitives[Mode.values().length]);
     
   public EclypsesECDH() {
     this(false);
   }
   
   public EclypsesECDH(boolean doLogging) {
+    this(doLogging, Mode.P256, null);
+  }
+  
+  public EclypsesECDH(Mode mode) {
+    this(false, mode, null);
+  }
+  
+  /**
+   * Take device key pairs from a pre-generated pool
+   * instead of generating them on the caller thread.
+   * @param keyPairPool --> shared key pair pool
+   */
+  public EclypsesECDH(EclypsesKeyPairPool keyPairPool) {
+    this(false, keyPairPool == null ? Mode.P256 : keyPairPool.getMode(), keyPairPool);
+  }
+  
+  public EclypsesECDH(Mode mode, EclypsesKeyPairPool keyPairPool) {
+    this(false, mode, keyPairPool);
+  }
+  
+  public EclypsesECDH(boolean doLogging, Mode mode, EclypsesKeyPairPool keyPairPool) {
+    if (keyPairPool != null && keyPairPool.getMode() != mode)
+      throw new IllegalArgumentException("Key pair pool mode does not match the key agreement mode.");
     if (DEBUG)
       logging = doLogging;
     else
       logging = false;
     kp = null;
+    this.mode = mode;
+    this.keyPairPool = keyPairPool;
     if (DEBUG && logging)
       log("Instance has been initialized.");
   }
   
+  /**
+   * Get the key agreement mode of this instance.
+   */
+  public Mode getMode() {
+    return mode;
+  }
+  
   public byte[] getDevicePublicKey() {
     //-----------------------------------------------------------------------
     // Instantiate a key pair generator using the "elliptic curve" algorithm.
     // Elliptic curve cryptography has been standardized by NIST in FIPS 186.
-    // After instantiation, set the key size to 256.
+    // After instantiation, set the key size to 256 (P256 mode only).
     //----------------------------------------------------------------------
+	  if(kp == null && keyPairPool != null) {
+		  //-------------------------------------------------------
+		  // Use a ready key pair from the pool when one is set,
+		  // the pool generates inline itself if it is empty.
+		  //-------------------------------------------------------
+		  kp = keyPairPool.take();
+		  if (kp == null) {
+			  if (DEBUG && logging)
+				  log("Taking a key pair from the pool failed.");
+			  return null;
+		  }
+	  }
 	  if(kp == null) {
 		  KeyPairGenerator kpg;
 		  try {
-			  kpg = KeyPairGenerator.getInstance("EC");
+			  kpg = mode.newKeyPairGenerator();
 		  } catch (NoSuchAlgorithmException e) {
 			  if (DEBUG && logging) {
 				  e.printStackTrace();
@@ -62,7 +187,6 @@ public class EclypsesECDH {
 			  }
 			  return null;
 		  }
-		  kpg.initialize(256);
 		  //-----------------------------------------------------------------------------------
 		  // Generate a key pair and get the encoded (binary) representation of our public key.
 		  // The key itself is formatted according to its standard format
@@ -71,29 +195,282 @@ public class EclypsesECDH {
 		  //-----------------------------------------------------------------------------------
 		  kp = kpg.generateKeyPair();
 	  }
-    return kp.getPublic().getEncoded();
+	  byte[] encoded = kp.getPublic().getEncoded();
+	  if (mode == Mode.X25519) {
+		  //-------------------------------------------------
+		  // X25519 sends only the 32 byte raw key; strip the
+		  // fixed X.509 prefix.
+		  //-------------------------------------------------
+		  return Arrays.copyOfRange(encoded, encoded.length - X25519_KEY_LENGTH, encoded.length);
+	  }
+    return encoded;
   }
 
 
   public byte[] createSharedSecret(byte[] partnerPublicKey) {
-    //--------------------------------------------------------------
-    // Instantiate a key factory using the elliptic curve algorithm.
-    //--------------------------------------------------------------
-    KeyFactory kf;
+    byte[] sharedSecret = new byte[SHARED_SECRET_LENGTH];
+    if (createSharedSecret(partnerPublicKey, sharedSecret, 0) < 0)
+      return null;
+    return sharedSecret;
+  }
+  
+  /**
+   * Create the shared secret directly into a caller supplied array.
+   * The raw agreement goes to a per thread scratch buffer that is
+   * zeroed afterwards, so no intermediate key material is left on
+   * the heap and nothing is allocated.
+   * @param partnerPublicKey --> partner's public key
+   * @param out --> destination array
+   * @param offset --> offset of the secret in the destination
+   * @return SHARED_SECRET_LENGTH or -1 if the secret was not created
+   */
+  public int createSharedSecret(byte[] partnerPublicKey, byte[] out, int offset) {
+    if (offset < 0 || out.length - offset < SHARED_SECRET_LENGTH)
+      throw new IllegalArgumentException("Output needs room for " + SHARED_SECRET_LENGTH + " bytes.");
+    Primitives cached = getPrimitives();
+    int length = agree(partnerPublicKey, cached);
+    if (length < 0)
+      return -1;
+    //-----------------------------------------------------------------------------------
+    // The partner does a SHA256 hash on the shared secret and uses that hash as entropy.
+    // The SHA256 hashing is part of C#'s ECDiffieHellman.DeriveKeyMaterial() function.
+    // The SHA256 hashing always creates 32 bytes of data.
+    // 32 bytes of entropy data are enough data to use as entropy even for SHA-512.
+    //-----------------------------------------------------------------------------------
+    MessageDigest digest = cached.digest;
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        Arrays.fill(cached.secret, (byte) 0);
+        if (DEBUG && logging) {
+          e.printStackTrace();
+          log("Creating a MessageDigest instance failed, algorithm is invalid.");
+        }
+        kp = null;
+        return -1;
+      }
+      cached.digest = digest;
+    }
+    //---------------------------------------------------------------------------
+    // The MessageDigest has been created; last step is to hash the shared secret
+    // in order to generate the final entropy.
+    //---------------------------------------------------------------------------
     try {
-      kf = KeyFactory.getInstance("EC");
-    } catch (NoSuchAlgorithmException e) {
+      digest.reset();
+      digest.update(cached.secret, 0, length);
+      digest.digest(out, offset, SHARED_SECRET_LENGTH);
+    } catch (DigestException e) {
       if (DEBUG && logging) {
         e.printStackTrace();
-        log("Creating a KeyFactory failed, algorithm type is invalid.");
+        log("Hashing the shared secret failed.");
       }
+      return -1;
+    } finally {
+      Arrays.fill(cached.secret, (byte) 0);
       kp = null;
+    }
+    return SHARED_SECRET_LENGTH;
+  }
+  
+  /**
+   * Create the shared secret directly into a buffer, which may be a
+   * direct (off-heap) buffer. The secret is written at the buffer's
+   * position and the position is advanced past it.
+   * @param partnerPublicKey --> partner's public key
+   * @param out --> destination buffer
+   * @return SHARED_SECRET_LENGTH or -1 if the secret was not created
+   */
+  public int createSharedSecret(byte[] partnerPublicKey, ByteBuffer out) {
+    if (out.remaining() < SHARED_SECRET_LENGTH)
+      throw new IllegalArgumentException("Output needs room for " + SHARED_SECRET_LENGTH + " bytes.");
+    if (out.hasArray()) {
+      int written = createSharedSecret(partnerPublicKey, out.array(), out.arrayOffset() + out.position());
+      if (written > 0)
+        out.position(out.position() + written);
+      return written;
+    }
+    //-------------------------------------------------------------
+    // MessageDigest can only write to an array, so a direct buffer
+    // gets the secret through the per thread scratch output.
+    //-------------------------------------------------------------
+    byte[] scratch = getPrimitives().output;
+    int written = createSharedSecret(partnerPublicKey, scratch, 0);
+    if (written > 0)
+      out.put(scratch, 0, written);
+    Arrays.fill(scratch, (byte) 0);
+    return written;
+  }
+  
+  /**
+   * Create several secrets from a single key agreement.
+   * The raw shared secret is run through HKDF-SHA256 (RFC 5869)
+   * and expanded once per label, so one exchange can provide
+   * both the Encoder and the Decoder entropy.
+   * @param partnerPublicKey --> partner's public key
+   * @param salt --> HKDF salt, both sides must use the same value
+   * @param labels --> HKDF info label for each secret
+   * @return one 32 byte secret per label, in label order
+   */
+  public byte[][] deriveSharedSecrets(byte[] partnerPublicKey, byte[] salt, String... labels) {
+    Primitives cached = getPrimitives();
+    int length = agree(partnerPublicKey, cached);
+    if (length < 0)
+      return null;
+    Mac hmac = cached.hmac;
+    if (hmac == null) {
+      try {
+        hmac = Mac.getInstance(EclypsesHKDF.ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        Arrays.fill(cached.secret, (byte) 0);
+        if (DEBUG && logging) {
+          e.printStackTrace();
+          log("Creating a Mac instance failed, algorithm is invalid.");
+        }
+        kp = null;
+        return null;
+      }
+      cached.hmac = hmac;
+    }
+    byte[] prk = null;
+    try {
+      prk = EclypsesHKDF.extract(hmac, salt, cached.secret, 0, length);
+      byte[][] secrets = new byte[labels.length][];
+      for (int i = 0; i < labels.length; i++) {
+        secrets[i] = EclypsesHKDF.expand(hmac, prk,
+            labels[i].getBytes(StandardCharsets.UTF_8), EclypsesHKDF.HASH_LENGTH);
+      }
+      return secrets;
+    } catch (InvalidKeyException e) {
+      if (DEBUG && logging) {
+        e.printStackTrace();
+        log("HKDF failed, key material is invalid.");
+      }
       return null;
+    } finally {
+      Arrays.fill(cached.secret, (byte) 0);
+      if (prk != null)
+        Arrays.fill(prk, (byte) 0);
+      try {
+        hmac.init(HMAC_RESET_KEY);
+      } catch (InvalidKeyException e) {
+        //-------------------------------------------------------
+        // Could not re-key, do not keep a Mac holding the PRK
+        //-------------------------------------------------------
+        cached.hmac = null;
+      }
+      kp = null;
+    }
+  }
+  
+  /**
+   * Create the shared secrets for many devices in parallel on the
+   * common ForkJoinPool, see createSharedSecrets(devices, keys, pool).
+   */
+  public static byte[][] createSharedSecrets(EclypsesECDH[] devices, byte[][] partnerPublicKeys) {
+    return createSharedSecrets(devices, partnerPublicKeys, ForkJoinPool.commonPool());
+  }
+  
+  /**
+   * Create the shared secrets for many devices in parallel.
+   * devices[i] (holding its own key pair from getDevicePublicKey)
+   * agrees with partnerPublicKeys[i]. Each device must appear only
+   * once since createSharedSecret clears its key pair.
+   * @param devices --> devices with their key pairs generated
+   * @param partnerPublicKeys --> partner public key per device
+   * @param pool --> pool to run the agreements on
+   * @return secrets in device order, null where an agreement failed
+   */
+  public static byte[][] createSharedSecrets(EclypsesECDH[] devices, byte[][] partnerPublicKeys, ForkJoinPool pool) {
+    if (devices.length != partnerPublicKeys.length)
+      throw new IllegalArgumentException("Each device needs exactly one partner public key.");
+    byte[][] secrets = new byte[devices.length][];
+    pool.invoke(new SharedSecretTask(devices, partnerPublicKeys, secrets, 0, devices.length));
+    return secrets;
+  }
+  
+  //-----------------------------------------------------------------
+  // Splits the batch in halves until a range is small enough to run
+  // directly. Every task writes only its own range of the results.
+  //-----------------------------------------------------------------
+  private static final class SharedSecretTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 8;
+    private final EclypsesECDH[] devices;
+    private final byte[][] partnerPublicKeys;
+    private final byte[][] secrets;
+    private final int from;
+    private final int to;
+    
+    SharedSecretTask(EclypsesECDH[] devices, byte[][] partnerPublicKeys, byte[][] secrets, int from, int to) {
+      this.devices = devices;
+      this.partnerPublicKeys = partnerPublicKeys;
+      this.secrets = secrets;
+      this.from = from;
+      this.to = to;
+    }
+    
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++)
+          secrets[i] = devices[i].createSharedSecret(partnerPublicKeys[i]);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new SharedSecretTask(devices, partnerPublicKeys, secrets, from, middle),
+          new SharedSecretTask(devices, partnerPublicKeys, secrets, middle, to));
+    }
+  }
+  
+  private Primitives getPrimitives() {
+    Primitives[] perMode = primitives.get();
+    Primitives cached = perMode[mode.ordinal()];
+    if (cached == null) {
+      cached = new Primitives();
+      perMode[mode.ordinal()] = cached;
+    }
+    return cached;
+  }
+  
+  //-----------------------------------------------------------------
+  // Run the key agreement into the scratch "secret" buffer and return
+  // its length, or -1 (with the device key pair cleared) on failure.
+  //-----------------------------------------------------------------
+  private int agree(byte[] partnerPublicKey, Primitives cached) {
+    //--------------------------------------------------------------
+    // Instantiate a key factory using the elliptic curve algorithm.
+    //--------------------------------------------------------------
+    KeyFactory kf = cached.keyFactory;
+    if (kf == null) {
+      try {
+        kf = KeyFactory.getInstance(mode.keyAlgorithm);
+      } catch (NoSuchAlgorithmException e) {
+        if (DEBUG && logging) {
+          e.printStackTrace();
+          log("Creating a KeyFactory failed, algorithm type is invalid.");
+        }
+        kp = null;
+        return -1;
+      }
+      cached.keyFactory = kf;
     }
     //-----------------------------------------------------------
     // The partner's public key comes in X.509 formatted.
     // We use the key factory to create the partner's public key.
+    // An X25519 partner key is raw so the X.509 prefix is added.
     //-----------------------------------------------------------
+    if (mode == Mode.X25519) {
+      if (partnerPublicKey == null || partnerPublicKey.length != X25519_KEY_LENGTH) {
+        if (DEBUG && logging)
+          log("X25519 public partner's key must be 32 bytes.");
+        kp = null;
+        return -1;
+      }
+      byte[] x509Key = Arrays.copyOf(X25519_X509_PREFIX, X25519_X509_PREFIX.length + X25519_KEY_LENGTH);
+      System.arraycopy(partnerPublicKey, 0, x509Key, X25519_X509_PREFIX.length, X25519_KEY_LENGTH);
+      partnerPublicKey = x509Key;
+    }
     X509EncodedKeySpec partnerKeySpec = new X509EncodedKeySpec(partnerPublicKey);
     PublicKey partnerKey;
     try {
@@ -104,21 +481,24 @@ public class EclypsesECDH {
         log("KeyFactory failed, public partner's key specification is invalid.");
       }
       kp = null;
-      return null;
+      return -1;
     }
     //-------------------------------------------------------------------------------
     // Instantiate a key agreement so that we can start generating the shared secret.
     //-------------------------------------------------------------------------------
-    KeyAgreement ka;
-    try {
-      ka = KeyAgreement.getInstance("ECDH");
-    } catch (NoSuchAlgorithmException e) {
-      if (DEBUG && logging) {
-        e.printStackTrace();
-        log("Creating a KeyAgreement instance failed, algorithm type is invalid.");
+    KeyAgreement ka = cached.keyAgreement;
+    if (ka == null) {
+      try {
+        ka = KeyAgreement.getInstance(mode.agreementAlgorithm);
+      } catch (NoSuchAlgorithmException e) {
+        if (DEBUG && logging) {
+          e.printStackTrace();
+          log("Creating a KeyAgreement instance failed, algorithm type is invalid.");
+        }
+        kp = null;
+        return -1;
       }
-      kp = null;
-      return null;
+      cached.keyAgreement = ka;
     }
     //----------------------------------------------------------------------------------
     // Generate the shared secret now using our private key and the server's public key.
@@ -132,35 +512,18 @@ public class EclypsesECDH {
         log("Creating the shared secret failed, public partner's key is invalid.");
       }
       kp = null;
-      return null;
+      return -1;
     }
-    byte[] sharedSecret = ka.generateSecret();
-    //-----------------------------------------------------------------------------------
-    // The partner does a SHA256 hash on the shared secret and uses that hash as entropy.
-    // The SHA256 hashing is part of C#'s ECDiffieHellman.DeriveKeyMaterial() function.
-    // The SHA256 hashing always creates 32 bytes of data.
-    // 32 bytes of entropy data are enough data to use as entropy even for SHA-512.
-    //-----------------------------------------------------------------------------------
-    MessageDigest digest;
     try {
-      digest = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      Arrays.fill(sharedSecret, (byte) 0);
+      return ka.generateSecret(cached.secret, 0);
+    } catch (ShortBufferException e) {
       if (DEBUG && logging) {
         e.printStackTrace();
-        log("Creating a MessageDigest instance failed, algorithm is invalid.");
+        log("Creating the shared secret failed, scratch buffer is too small.");
       }
       kp = null;
-      return null;
+      return -1;
     }
-    //---------------------------------------------------------------------------
-    // The MessageDigest has been created; last step is to hash the shared secret
-    // in order to generate the final entropy.
-    //---------------------------------------------------------------------------
-    digest.reset();
-    sharedSecret = digest.digest(sharedSecret);
-    kp = null;
-    return sharedSecret;
   }
   
   /**
@@ -0,0 +1,74 @@
+package com.eclypses.ecdh;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * HKDF with HMAC-SHA256 as described in RFC 5869.
+ * Used to expand a single key agreement into several
+ * independent secrets, one per info label.
+ */
+public final class EclypsesHKDF {
+
+  static final String ALGORITHM = "HmacSHA256";
+  static final int HASH_LENGTH = 32;
+
+  private EclypsesHKDF() {
+  }
+
+  /**
+   * HKDF-Extract: PRK = HMAC-Hash(salt, IKM)
+   * @param hmac --> HmacSHA256 instance, re-initialized here
+   * @param salt --> optional salt, an empty salt is HashLen zeros
+   * @param ikm --> input key material
+   * @return 32 byte pseudorandom key
+   */
+  public static byte[] extract(Mac hmac, byte[] salt, byte[] ikm) throws InvalidKeyException {
+    return extract(hmac, salt, ikm, 0, ikm.length);
+  }
+
+  /**
+   * HKDF-Extract over a range of the input key material,
+   * so the caller does not need to copy it out first.
+   */
+  public static byte[] extract(Mac hmac, byte[] salt, byte[] ikm, int offset, int length) throws InvalidKeyException {
+    if (salt == null || salt.length == 0)
+      salt = new byte[HASH_LENGTH];
+    hmac.init(new SecretKeySpec(salt, ALGORITHM));
+    hmac.update(ikm, offset, length);
+    return hmac.doFinal();
+  }
+
+  /**
+   * HKDF-Expand: T(i) = HMAC-Hash(PRK, T(i-1) | info | i)
+   * @param hmac --> HmacSHA256 instance, re-initialized here
+   * @param prk --> pseudorandom key from extract
+   * @param info --> context and application specific label
+   * @param length --> output length, at most 255 * 32 bytes
+   * @return output key material
+   */
+  public static byte[] expand(Mac hmac, byte[] prk, byte[] info, int length) throws InvalidKeyException {
+    if (length < 0 || length > 255 * HASH_LENGTH)
+      throw new IllegalArgumentException("HKDF output length is invalid.");
+    hmac.init(new SecretKeySpec(prk, ALGORITHM));
+    byte[] okm = new byte[length];
+    byte[] t = new byte[0];
+    int offset = 0;
+    for (int i = 1; offset < length; i++) {
+      hmac.update(t);
+      hmac.update(info);
+      hmac.update((byte) i);
+      Arrays.fill(t, (byte) 0);
+      t = hmac.doFinal();
+      int count = Math.min(t.length, length - offset);
+      System.arraycopy(t, 0, okm, offset, count);
+      offset += count;
+    }
+    Arrays.fill(t, (byte) 0);
+    return okm;
+  }
+}
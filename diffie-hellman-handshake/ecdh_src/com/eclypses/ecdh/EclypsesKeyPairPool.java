@@ -0,0 +1,140 @@
+package com.eclypses.ecdh;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bounded pool of pre-generated elliptic curve key pairs.
+ * A background thread keeps the pool topped up so that
+ * EclypsesECDH.getDevicePublicKey() does not have to pay for
+ * key generation on the caller thread. When the pool is empty
+ * a key pair is generated inline and counted as a miss.
+ */
+public class EclypsesKeyPairPool {
+
+  private final BlockingQueue<KeyPair> pool;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final Thread refillThread;
+  private final EclypsesECDH.Mode mode;
+  private volatile boolean closed;
+
+  /**
+   * Create a pool holding up to "capacity" key pairs
+   * and start the background refill thread.
+   * @param capacity --> maximum number of ready key pairs
+   */
+  public EclypsesKeyPairPool(int capacity) {
+    this(capacity, EclypsesECDH.Mode.P256);
+  }
+
+  /**
+   * Create a pool of key pairs for the given key agreement mode.
+   * @param capacity --> maximum number of ready key pairs
+   * @param mode     --> key agreement mode of the key pairs
+   */
+  public EclypsesKeyPairPool(int capacity, EclypsesECDH.Mode mode) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Key pair pool capacity must be at least 1.");
+    pool = new ArrayBlockingQueue<KeyPair>(capacity);
+    this.mode = mode;
+    closed = false;
+    refillThread = new Thread(this::refill, "EclypsesKeyPairPool-refill");
+    refillThread.setDaemon(true);
+    refillThread.start();
+  }
+
+  /**
+   * Take a ready key pair from the pool, or generate one
+   * on the caller thread if the pool is currently empty.
+   * Each key pair is handed out exactly once.
+   * @return key pair or null if the algorithm is unavailable
+   */
+  public KeyPair take() {
+    KeyPair kp = pool.poll();
+    if (kp != null) {
+      hits.incrementAndGet();
+      return kp;
+    }
+    misses.incrementAndGet();
+    return generateKeyPair();
+  }
+
+  /**
+   * Key agreement mode of the pooled key pairs.
+   */
+  public EclypsesECDH.Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Number of key pairs handed out straight from the pool.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of key pairs that had to be generated inline.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Number of key pairs currently ready in the pool.
+   */
+  public int getAvailable() {
+    return pool.size();
+  }
+
+  /**
+   * Stop the refill thread and drop any pooled key pairs.
+   */
+  public void close() {
+    closed = true;
+    refillThread.interrupt();
+    pool.clear();
+  }
+
+  //-------------------------------------------------------------------
+  // The refill thread owns its own KeyPairGenerator since generators
+  // are not thread safe. put() blocks while the pool is full so the
+  // thread is idle until a key pair is taken.
+  //-------------------------------------------------------------------
+  private void refill() {
+    KeyPairGenerator kpg = createGenerator();
+    if (kpg == null)
+      return;
+    try {
+      while (!closed) {
+        pool.put(kpg.generateKeyPair());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private KeyPair generateKeyPair() {
+    KeyPairGenerator kpg = createGenerator();
+    if (kpg == null)
+      return null;
+    return kpg.generateKeyPair();
+  }
+
+  private KeyPairGenerator createGenerator() {
+    //-------------------------------------------
+    // Same settings as EclypsesECDH for the mode.
+    //-------------------------------------------
+    try {
+      return mode.newKeyPairGenerator();
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.eclypses.ecdh;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Key agreement between two EclypsesECDH instances and the
+ * failure paths for bad partner keys.
+ */
+class EclypsesECDHTest {
+
+  @ParameterizedTest
+  @EnumSource(EclypsesECDH.Mode.class)
+  void bothSidesAgreeOnTheSecret(EclypsesECDH.Mode mode) {
+    EclypsesECDH device = new EclypsesECDH(mode);
+    EclypsesECDH server = new EclypsesECDH(mode);
+    byte[] devicePublicKey = device.getDevicePublicKey();
+    byte[] serverPublicKey = server.getDevicePublicKey();
+
+    byte[] deviceSecret = device.createSharedSecret(serverPublicKey);
+    byte[] serverSecret = server.createSharedSecret(devicePublicKey);
+    assertNotNull(deviceSecret);
+    assertEquals(EclypsesECDH.SHARED_SECRET_LENGTH, deviceSecret.length);
+    assertArrayEquals(deviceSecret, serverSecret);
+  }
+
+  @Test
+  void x25519PublicKeyIsRaw() {
+    assertEquals(32, new EclypsesECDH(EclypsesECDH.Mode.X25519).getDevicePublicKey().length);
+  }
+
+  @Test
+  void secretGoesToTheGivenOffset() {
+    EclypsesECDH device = new EclypsesECDH();
+    EclypsesECDH server = new EclypsesECDH();
+    byte[] devicePublicKey = device.getDevicePublicKey();
+    byte[] out = new byte[EclypsesECDH.SHARED_SECRET_LENGTH + 8];
+    assertEquals(EclypsesECDH.SHARED_SECRET_LENGTH, device.createSharedSecret(server.getDevicePublicKey(), out, 8));
+    assertArrayEquals(server.createSharedSecret(devicePublicKey), Arrays.copyOfRange(out, 8, out.length));
+    assertThrows(IllegalArgumentException.class, () -> new EclypsesECDH().createSharedSecret(devicePublicKey, out, 9));
+  }
+
+  @Test
+  void derivedSecretsMatchPerLabel() {
+    EclypsesECDH device = new EclypsesECDH();
+    EclypsesECDH server = new EclypsesECDH();
+    byte[] devicePublicKey = device.getDevicePublicKey();
+    byte[] salt = "conversation".getBytes(StandardCharsets.UTF_8);
+
+    byte[][] deviceSecrets = device.deriveSharedSecrets(server.getDevicePublicKey(), salt, "encoder", "decoder");
+    byte[][] serverSecrets = server.deriveSharedSecrets(devicePublicKey, salt, "encoder", "decoder");
+    assertEquals(2, deviceSecrets.length);
+    assertArrayEquals(deviceSecrets[0], serverSecrets[0]);
+    assertArrayEquals(deviceSecrets[1], serverSecrets[1]);
+    assertFalse(Arrays.equals(deviceSecrets[0], deviceSecrets[1]));
+  }
+
+  @Test
+  void badPartnerKeysGiveNoSecret() {
+    EclypsesECDH p256 = new EclypsesECDH();
+    p256.getDevicePublicKey();
+    assertNull(p256.createSharedSecret(new byte[91]));
+
+    EclypsesECDH x25519 = new EclypsesECDH(EclypsesECDH.Mode.X25519);
+    x25519.getDevicePublicKey();
+    assertNull(x25519.createSharedSecret(new byte[31]));
+    assertNull(x25519.createSharedSecret(null));
+
+    EclypsesECDH other = new EclypsesECDH(EclypsesECDH.Mode.X25519);
+    byte[] x25519Key = other.getDevicePublicKey();
+    EclypsesECDH mismatched = new EclypsesECDH();
+    mismatched.getDevicePublicKey();
+    assertNull(mismatched.createSharedSecret(x25519Key));
+  }
+
+  @Test
+  void batchMatchesSingleAgreements() {
+    int count = 20;
+    EclypsesECDH[] devices = new EclypsesECDH[count];
+    EclypsesECDH[] servers = new EclypsesECDH[count];
+    byte[][] serverKeys = new byte[count][];
+    byte[][] deviceKeys = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      devices[i] = new EclypsesECDH();
+      servers[i] = new EclypsesECDH();
+      deviceKeys[i] = devices[i].getDevicePublicKey();
+      serverKeys[i] = servers[i].getDevicePublicKey();
+    }
+    serverKeys[3] = new byte[5];
+
+    byte[][] secrets = EclypsesECDH.createSharedSecrets(devices, serverKeys);
+    assertEquals(count, secrets.length);
+    for (int i = 0; i < count; i++) {
+      if (i == 3) {
+        assertNull(secrets[i]);
+      } else {
+        assertArrayEquals(servers[i].createSharedSecret(deviceKeys[i]), secrets[i]);
+      }
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> EclypsesECDH.createSharedSecrets(new EclypsesECDH[2], new byte[1][]));
+  }
+}
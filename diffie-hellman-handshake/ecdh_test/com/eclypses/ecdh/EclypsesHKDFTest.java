@@ -0,0 +1,98 @@
+package com.eclypses.ecdh;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * EclypsesHKDF against the HMAC-SHA256 test cases of RFC 5869,
+ * appendix A.1 to A.3.
+ */
+class EclypsesHKDFTest {
+
+  private Mac hmac;
+
+  @BeforeEach
+  void createMac() throws Exception {
+    hmac = Mac.getInstance(EclypsesHKDF.ALGORITHM);
+  }
+
+  @Test
+  void basicTestCase() throws Exception {
+    byte[] ikm = filled(22, 0x0b);
+    byte[] salt = hex("000102030405060708090a0b0c");
+    byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+    byte[] prk = EclypsesHKDF.extract(hmac, salt, ikm);
+    assertArrayEquals(hex("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5"), prk);
+    assertArrayEquals(hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"),
+        EclypsesHKDF.expand(hmac, prk, info, 42));
+  }
+
+  @Test
+  void longerInputsAndOutputs() throws Exception {
+    byte[] ikm = sequence(0x00, 80);
+    byte[] salt = sequence(0x60, 80);
+    byte[] info = sequence(0xb0, 80);
+    byte[] prk = EclypsesHKDF.extract(hmac, salt, ikm);
+    assertArrayEquals(hex("06a6b88c5853361a06104c9ceb35b45cef760014904671014a193f40c15fc244"), prk);
+    assertArrayEquals(hex("b11e398dc80327a1c8e7f78c596a49344f012eda2d4efad8a050cc4c19afa97c"
+        + "59045a99cac7827271cb41c65e590e09da3275600c2f09b8367793a9aca3db71"
+        + "cc30c58179ec3e87c14c01d5c1f3434f1d87"), EclypsesHKDF.expand(hmac, prk, info, 82));
+  }
+
+  @Test
+  void zeroLengthSaltAndInfo() throws Exception {
+    byte[] ikm = filled(22, 0x0b);
+    byte[] prk = EclypsesHKDF.extract(hmac, new byte[0], ikm);
+    assertArrayEquals(hex("19ef24a32c717b167f33a91d6f648bdf96596776afdb6377ac434c1c293ccb04"), prk);
+    assertArrayEquals(prk, EclypsesHKDF.extract(hmac, null, ikm));
+    assertArrayEquals(hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"),
+        EclypsesHKDF.expand(hmac, prk, new byte[0], 42));
+  }
+
+  @Test
+  void extractOverARangeMatchesACopy() throws Exception {
+    byte[] salt = hex("000102030405060708090a0b0c");
+    byte[] padded = new byte[30];
+    Arrays.fill(padded, 4, 26, (byte) 0x0b);
+    assertArrayEquals(EclypsesHKDF.extract(hmac, salt, filled(22, 0x0b)),
+        EclypsesHKDF.extract(hmac, salt, padded, 4, 22));
+  }
+
+  @Test
+  void expandLengthBounds() throws Exception {
+    byte[] prk = EclypsesHKDF.extract(hmac, null, filled(22, 0x0b));
+    assertEquals(0, EclypsesHKDF.expand(hmac, prk, new byte[0], 0).length);
+    assertEquals(255 * EclypsesHKDF.HASH_LENGTH, EclypsesHKDF.expand(hmac, prk, new byte[0], 255 * 32).length);
+    assertThrows(IllegalArgumentException.class, () -> EclypsesHKDF.expand(hmac, prk, new byte[0], 255 * 32 + 1));
+    assertThrows(IllegalArgumentException.class, () -> EclypsesHKDF.expand(hmac, prk, new byte[0], -1));
+  }
+
+  private static byte[] filled(int length, int value) {
+    byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte) value);
+    return bytes;
+  }
+
+  private static byte[] sequence(int first, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = (byte) (first + i);
+    return bytes;
+  }
+
+  private static byte[] hex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    return bytes;
+  }
+}
@@ -1,15 +1,15 @@
 package handshake;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import com.eclypses.ecdh.*;
 import com.google.gson.Gson;
@@ -42,6 +42,20 @@ public class Handshake {
 	public static final Gson _gson = new GsonBuilder()
 			.registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter()).create();
 
+	// ----------------------------------------------------
+	// Pre-generated key pairs so the handshake does not
+	// wait on key generation
+	// ----------------------------------------------------
+	private static final EclypsesKeyPairPool _keyPairPool = new EclypsesKeyPairPool(Constants.KeyPairPoolSize,
+			Constants.KeyAgreementMode);
+
+	/**
+	 * Key pair pool shared by all handshakes of this process
+	 */
+	static EclypsesKeyPairPool getKeyPairPool() {
+		return _keyPairPool;
+	}
+
 	// ------------------------
 	// Using base64 libraries
 	// ------------------------
@@ -56,12 +70,40 @@ public class Handshake {
 		}
 	}
 
+	/**
+	 * Optional arguments:
+	 * "local"  --> run against an embedded LocalHandshakeServer (offline)
+	 * "single" --> use the single agreement handshake with HKDF
+	 * "async"  --> use the non-blocking HandshakeWithServerAsync,
+	 *              cannot be combined with "single"
+	 */
 	public static void main(String[] args) throws Exception {
 		//------------------------------
 		// Initialize client parameters 
 		//------------------------------
 		HandshakeResponse handshake = new HandshakeResponse();
 		String clientId = UUID.randomUUID().toString();
+		boolean useLocalServer = false;
+		boolean useSingleAgreement = false;
+		boolean useAsync = false;
+		for (String arg : args) {
+			useLocalServer |= arg.equalsIgnoreCase("local");
+			useSingleAgreement |= arg.equalsIgnoreCase("single");
+			useAsync |= arg.equalsIgnoreCase("async");
+		}
+		if (useSingleAgreement && useAsync) {
+			throw new IllegalArgumentException("\"single\" and \"async\" cannot be combined.");
+		}
+		
+		//---------------------------------------------
+		// Start the local stand-in server if requested
+		//---------------------------------------------
+		LocalHandshakeServer localServer = null;
+		if (useLocalServer) {
+			localServer = new LocalHandshakeServer(0);
+			localServer.start();
+			Constants.RestAPIName = localServer.getUrl();
+		}
 		
 		//-----------------
 		// Buffered input.
@@ -71,7 +113,14 @@ public class Handshake {
 		//-------------------
 		// Perform Handshake 
 		//-------------------
-		ResponseModel<HandshakeResponse> handshakeResponse = HandshakeWithServer(clientId);
+		ResponseModel<HandshakeResponse> handshakeResponse;
+		if (useSingleAgreement) {
+			handshakeResponse = SingleAgreementHandshakeWithServer(clientId);
+		} else if (useAsync) {
+			handshakeResponse = HandshakeWithServerAsync(clientId).get();
+		} else {
+			handshakeResponse = HandshakeWithServer(clientId);
+		}
 		if (!handshakeResponse.Success) {
 			throw new Exception("Handshake unsuccessful, message:" + handshakeResponse.Message);
 		}
@@ -85,8 +134,23 @@ public class Handshake {
     	System.out.println("Completed Handshake for client " + clientId + " .");
     	System.out.println("Encoder Shared Secret: " + Base64.getEncoder().encodeToString(handshake.EncoderSharedSecret));
     	System.out.println("Decoder Shared Secret: " + Base64.getEncoder().encodeToString(handshake.DecoderSharedSecret));
+    	System.out.println("Key pair pool hits: " + _keyPairPool.getHits() + " misses: " + _keyPairPool.getMisses());
+    	
+    	//----------------------------------------------------
+    	// With the local server both sides can be compared:
+    	// the client Encoder pairs with the server Decoder
+    	//----------------------------------------------------
+    	if (localServer != null) {
+    		HandshakeResponse serverSecrets = localServer.getServerSecrets(clientId);
+    		boolean paired = Arrays.equals(handshake.EncoderSharedSecret, serverSecrets.DecoderSharedSecret)
+    				&& Arrays.equals(handshake.DecoderSharedSecret, serverSecrets.EncoderSharedSecret);
+    		System.out.println("Secrets match local server: " + paired);
+    	}
     	System.out.println("Press enter to end program.");
     	br.readLine();
+    	if (localServer != null) {
+    		localServer.stop();
+    	}
     	
 		
 	}
@@ -113,20 +177,23 @@ public class Handshake {
 			// -------------------------------------------
 			// Create eclypses DH containers for handshake
 			// -------------------------------------------
-			EclypsesECDH encoderEcdh = new EclypsesECDH();
-			EclypsesECDH decoderEcdh = new EclypsesECDH();
+			EclypsesECDH encoderEcdh = new EclypsesECDH(_keyPairPool);
+			EclypsesECDH decoderEcdh = new EclypsesECDH(_keyPairPool);
 
 			// -------------------------------------------
 			// Get the public key to send to other side
 			// -------------------------------------------
 			handshake.ClientEncoderPublicKey = encoderEcdh.getDevicePublicKey();
 			handshake.ClientDecoderPublicKey = decoderEcdh.getDevicePublicKey();
+			if (Constants.KeyAgreementMode != EclypsesECDH.Mode.P256) {
+				handshake.KeyAgreement = Constants.KeyAgreementMode.name();
+			}
 
 			// -------------------
 			// Perform handshake
 			// -------------------
 			String handshakeString = _gson.toJson(handshake);
-			String handshakeResponse = MakeHttpCall(Constants.RestAPIName + Constants.HandshakeRoute, "POST",
+			String handshakeResponse = HttpTransport.MakeHttpCall(Constants.RestAPIName + Constants.HandshakeRoute, "POST",
 					handshake.ConversationIdentifier, Constants.JsonContentType, handshakeString);
 
 			// ---------------------------------------
@@ -172,94 +239,209 @@ public class Handshake {
 	}
 	
 	/**
-	 * Make the Http Call
+	 * Handshake with the server without blocking the calling thread.
+	 * Key pairs come from the key pair pool, the request goes out on
+	 * the shared HttpClient and the shared secrets are created when
+	 * the response arrives.
 	 * 
-	 * @param connectionUrl    --> Connection URL
-	 * @param connectionMethod --> Connection Method
-	 * @param clientId         --> Current client id
-	 * @param contentType      --> http content type
-	 * @param payload          --> http call payload
+	 * @param clientId            --> Current client id
+	 * @return future completing with the handshake result, never
+	 *         completing exceptionally
+	 */
+	public static CompletableFuture<ResponseModel<HandshakeResponse>> HandshakeWithServerAsync(String clientId) {
+		return HandshakeWithServerAsync(clientId, null);
+	}
+
+	/**
+	 * Asynchronous handshake that also records how long each
+	 * phase took, used by HandshakeLoadGenerator.
+	 * 
+	 * @param clientId            --> Current client id
+	 * @param timings             --> phase timings to fill in, may be null
 	 * @return
 	 */
-	private static String MakeHttpCall(String connectionUrl, String connectionMethod, String clientId,
-			String contentType, String payload) {
-		String returnPayload = "";
-		try {
-			// -----------------------------------------
-			// Set URI and other default Http settings
-			// -----------------------------------------
-			URL url = new URL(connectionUrl);
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-			// ---------------------------
-			// Check if we have a payload
-			// ---------------------------
-			if (payload != null && !payload.isEmpty()) {
-				conn.setDoOutput(true);
-			}
-			conn.setRequestMethod(connectionMethod);
-			conn.setRequestProperty("Content-Type", contentType);
-
-			// -------------------------
-			// Add client id to header
-			// -------------------------
-			conn.setRequestProperty(Constants.ClientIdHeader, clientId);
-
-			OutputStream os = conn.getOutputStream();
-			os.write(payload.getBytes());
-			os.flush();
-
-			// --------------------------------------------------
-			// If we did not get a good connection return error
-			// --------------------------------------------------
-			if (conn.getResponseCode() < HttpURLConnection.HTTP_OK || conn.getResponseCode() > 299) {
-
-				// ------------------------------------------------------
-				// Create error response to send back to calling method
-				// ------------------------------------------------------
-				ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-				errorResponse.Data = null;
-				errorResponse.Message = "Failed : HTTP error code : " + conn.getResponseCode();
-				errorResponse.ResultCode = Constants.RC_HTTP_ERROR;
-				returnPayload = _gson.toJson(errorResponse);
-				return returnPayload;
-			}
+	static CompletableFuture<ResponseModel<HandshakeResponse>> HandshakeWithServerAsync(String clientId,
+			HandshakeTimings timings) {
+		long phaseStart = System.nanoTime();
+		// --------------------------------
+		// create clientId for this client
+		// --------------------------------
+		HandshakeModel handshake = new handshake.Models.HandshakeModel();
+		handshake.ConversationIdentifier = clientId;
+
+		// -------------------------------------------
+		// Create eclypses DH containers for handshake
+		// -------------------------------------------
+		EclypsesECDH encoderEcdh = new EclypsesECDH(_keyPairPool);
+		EclypsesECDH decoderEcdh = new EclypsesECDH(_keyPairPool);
+		handshake.ClientEncoderPublicKey = encoderEcdh.getDevicePublicKey();
+		handshake.ClientDecoderPublicKey = decoderEcdh.getDevicePublicKey();
+		if (Constants.KeyAgreementMode != EclypsesECDH.Mode.P256) {
+			handshake.KeyAgreement = Constants.KeyAgreementMode.name();
+		}
+		long keysCreated = System.nanoTime();
+		if (timings != null) {
+			timings.KeyGenerationNanos = keysCreated - phaseStart;
+		}
+
+		// -------------------------------------------------------
+		// The request is built inside the chain so a bad URL
+		// completes the future with a failure instead of throwing
+		// -------------------------------------------------------
+		return CompletableFuture.completedFuture(handshake)
+				.thenCompose(body -> {
+					HttpRequest request = HttpTransport
+							.NewRequest(Constants.RestAPIName + Constants.HandshakeRoute, clientId,
+									Constants.JsonContentType)
+							.POST(HttpRequest.BodyPublishers.ofString(_gson.toJson(body)))
+							.build();
+					return HttpTransport.getClient().sendAsync(request, HttpResponse.BodyHandlers.ofString());
+				})
+				.thenApply(httpResponse -> {
+					long received = System.nanoTime();
+					if (timings != null) {
+						timings.HttpNanos = received - keysCreated;
+					}
+					ResponseModel<HandshakeResponse> response = new ResponseModel<HandshakeResponse>();
+					response.Data = new HandshakeResponse();
 
-			// -------------------------
-			// Read in the inputStream
-			// -------------------------
-			BufferedReader br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
+					// --------------------------------------------------
+					// If we did not get a good connection return error
+					// --------------------------------------------------
+					if (httpResponse.statusCode() < 200 || httpResponse.statusCode() > 299) {
+						response.Message = "Failed : HTTP error code : " + httpResponse.statusCode();
+						response.Success = false;
+						response.ResultCode = Constants.RC_HTTP_ERROR;
+						return response;
+					}
+
+					// ---------------------------------------
+					// Deserialize the result from handshake
+					// ---------------------------------------
+					Type handshakeResponseType = new TypeToken<ResponseModel<HandshakeModel>>() {
+					}.getType();
+					ResponseModel<HandshakeModel> serverResponse = _gson.fromJson(httpResponse.body(),
+							handshakeResponseType);
+					long parsed = System.nanoTime();
+					if (timings != null) {
+						timings.ParseNanos = parsed - received;
+					}
+					if (!serverResponse.Success) {
+						response.Message = serverResponse.Message;
+						response.Success = serverResponse.Success;
+						response.ResultCode = serverResponse.ResultCode;
+						return response;
+					}
+
+					// ----------------------
+					// Create shared secret
+					// ----------------------
+					response.Data.EncoderSharedSecret = encoderEcdh
+							.createSharedSecret(serverResponse.Data.ClientEncoderPublicKey);
+					response.Data.DecoderSharedSecret = decoderEcdh
+							.createSharedSecret(serverResponse.Data.ClientDecoderPublicKey);
+					if (response.Data.EncoderSharedSecret == null || response.Data.DecoderSharedSecret == null) {
+						response.Data = new HandshakeResponse();
+						response.Message = "Unable to create shared secret, server public key is invalid.";
+						response.Success = false;
+						response.ResultCode = Constants.RC_HANDSHAKE_EXCEPTION;
+						return response;
+					}
+					if (timings != null) {
+						timings.SharedSecretNanos = System.nanoTime() - parsed;
+					}
+					return response;
+				})
+				.exceptionally(ex -> {
+					ResponseModel<HandshakeResponse> response = new ResponseModel<HandshakeResponse>();
+					response.Data = new HandshakeResponse();
+					response.Message = "Exception during handshake: " + ex.getMessage();
+					response.Success = false;
+					response.ResultCode = Constants.RC_HANDSHAKE_EXCEPTION;
+					return response;
+				});
+	}
+	
+	/**
+	 * Handshake with the server using a single key agreement.
+	 * The shared secret is expanded with HKDF-SHA256 into the
+	 * Encoder and the Decoder secret, which halves the EC work
+	 * and the public key payload of HandshakeWithServer.
+	 * 
+	 * @param clientId            --> Current client id
+	 * @return
+	 */
+	private static ResponseModel<HandshakeResponse> SingleAgreementHandshakeWithServer(String clientId) {
+		ResponseModel<HandshakeResponse> response = new ResponseModel<HandshakeResponse>();
+		response.Data = new HandshakeResponse();
+		try {
+			System.out.println("Performing single agreement Handshake for Client " + clientId);
 
-			// --------------------
-			// Assign the payload
-			// --------------------
-			returnPayload = br.readLine();
+			// --------------------------------
+			// create clientId for this client
+			// --------------------------------
+			SingleAgreementModel handshake = new SingleAgreementModel();
+			handshake.ConversationIdentifier = clientId;
 
-			// ---------------------------
-			// Disconnect the connection
-			// ---------------------------
-			conn.disconnect();
+			// ----------------------------------------------
+			// One eclypses DH container for both directions
+			// ----------------------------------------------
+			EclypsesECDH ecdh = new EclypsesECDH(_keyPairPool);
+			handshake.ClientPublicKey = ecdh.getDevicePublicKey();
+			if (Constants.KeyAgreementMode != EclypsesECDH.Mode.P256) {
+				handshake.KeyAgreement = Constants.KeyAgreementMode.name();
+			}
 
-		} catch (MalformedURLException e) {
+			// -------------------
+			// Perform handshake
+			// -------------------
+			String handshakeString = _gson.toJson(handshake);
+			String handshakeResponse = HttpTransport.MakeHttpCall(Constants.RestAPIName + Constants.SingleHandshakeRoute, "POST",
+					handshake.ConversationIdentifier, Constants.JsonContentType, handshakeString);
 
-			e.printStackTrace();
-			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-			errorResponse.Data = null;
-			errorResponse.Message = "MalformedURLException in MakeHtteCall : " + e.getMessage();
-			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-			returnPayload = _gson.toJson(errorResponse);
+			// ---------------------------------------
+			// Deserialize the result from handshake
+			// ---------------------------------------
+			Type handshakeResponseType = new TypeToken<ResponseModel<SingleAgreementModel>>() {
+			}.getType();
+			ResponseModel<SingleAgreementModel> serverResponse = 
+					_gson.fromJson(handshakeResponse, handshakeResponseType);
 
-		} catch (IOException e) {
+			// ---------------------------------------
+			// If handshake was not successful end
+			// ---------------------------------------
+			if (!serverResponse.Success) {
+				response.Message = serverResponse.Message;
+				response.Success = serverResponse.Success;
+				response.ResultCode = serverResponse.ResultCode;
+				System.out.println("Error making DH handshake for Client " + clientId + ": " + serverResponse.Message);
+				return response;
+			}
 
-			e.printStackTrace();
-			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-			errorResponse.Data = null;
-			errorResponse.Message = "IOException in MakeHttpCall : " + e.getMessage();
-			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-			returnPayload = _gson.toJson(errorResponse);
+			// ------------------------------------------------------
+			// Expand the one shared secret into both entropy values,
+			// the conversation identifier is the HKDF salt
+			// ------------------------------------------------------
+			byte[][] secrets = ecdh.deriveSharedSecrets(serverResponse.Data.ClientPublicKey,
+					clientId.getBytes(StandardCharsets.UTF_8), Constants.EncoderEntropyLabel,
+					Constants.DecoderEntropyLabel);
+			if (secrets == null) {
+				response.Message = "Unable to create shared secrets for Client " + clientId;
+				response.Success = false;
+				response.ResultCode = Constants.RC_HANDSHAKE_EXCEPTION;
+				return response;
+			}
+			response.Data.EncoderSharedSecret = secrets[0];
+			response.Data.DecoderSharedSecret = secrets[1];
 
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			response.Message = "Exception during handshake: " + ex.getMessage();
+			response.Success = false;
+			response.ResultCode = Constants.RC_HANDSHAKE_EXCEPTION;
+			return response;
 		}
-		return returnPayload;
+		return response;
 	}
 
 }
@@ -0,0 +1,165 @@
+package handshake;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import handshake.Models.*;
+
+//-------------------------------------------------------------------------
+// Handshake load generator. Runs up to N concurrent handshakes against
+// /api/handshake at a fixed target rate and reports throughput and
+// latency histograms for the whole handshake and for each phase:
+// key generation, HTTP round trip, JSON parse and createSharedSecret.
+//
+// Handshakes are started on a fixed schedule and their latency is
+// measured from the intended start time, so time spent waiting for a
+// free client slot is included (no coordinated omission). Only
+// successful handshakes are in the total and phase histograms, failed
+// ones are timed in their own.
+//
+// Usage: HandshakeLoadGenerator [--clients N] [--rate per second]
+//        [--duration seconds] [--url base url | --local] [--output file]
+// -------------------------------------------------------------------------
+
+public class HandshakeLoadGenerator {
+
+	private static final Gson _reportGson = new GsonBuilder().setPrettyPrinting().create();
+
+	public static void main(String[] args) throws Exception {
+		int clients = 16;
+		double rate = 100;
+		int durationSeconds = 30;
+		String output = null;
+		boolean useLocalServer = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--clients":
+				clients = Integer.parseInt(args[++i]);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(args[++i]);
+				break;
+			case "--duration":
+				durationSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--url":
+				Constants.RestAPIName = args[++i];
+				break;
+			case "--local":
+				useLocalServer = true;
+				break;
+			case "--output":
+				output = args[++i];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+		}
+
+		// ---------------------------------------------
+		// Start the local stand-in server if requested
+		// ---------------------------------------------
+		LocalHandshakeServer localServer = null;
+		if (useLocalServer) {
+			localServer = new LocalHandshakeServer(0);
+			localServer.start();
+			Constants.RestAPIName = localServer.getUrl();
+		}
+
+		// ------------------------
+		// One histogram per phase
+		// ------------------------
+		LatencyHistogram total = new LatencyHistogram();
+		LatencyHistogram keyGeneration = new LatencyHistogram();
+		LatencyHistogram http = new LatencyHistogram();
+		LatencyHistogram parse = new LatencyHistogram();
+		LatencyHistogram sharedSecret = new LatencyHistogram();
+		LatencyHistogram failed = new LatencyHistogram();
+		AtomicLong completed = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		Semaphore slots = new Semaphore(clients);
+
+		// ---------------------------------------------------
+		// Issue handshakes on a fixed schedule for duration
+		// ---------------------------------------------------
+		long intervalNanos = (long) (1_000_000_000L / rate);
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long issued = 0;
+		for (long intended = startNanos; intended < endNanos; intended += intervalNanos) {
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			slots.acquire();
+			issued++;
+			long intendedStart = intended;
+			HandshakeTimings timings = new HandshakeTimings();
+			Handshake.HandshakeWithServerAsync(UUID.randomUUID().toString(), timings).whenComplete((response, ex) -> {
+				long elapsed = System.nanoTime() - intendedStart;
+				if (ex == null && response.Success) {
+					completed.incrementAndGet();
+					total.record(elapsed);
+					keyGeneration.record(timings.KeyGenerationNanos);
+					http.record(timings.HttpNanos);
+					parse.record(timings.ParseNanos);
+					sharedSecret.record(timings.SharedSecretNanos);
+				} else {
+					errors.incrementAndGet();
+					failed.record(elapsed);
+				}
+				slots.release();
+			});
+		}
+
+		// --------------------------------------
+		// Wait for in flight handshakes to end
+		// --------------------------------------
+		slots.acquire(clients);
+		double elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+		if (localServer != null) {
+			localServer.stop();
+		}
+
+		// ------------------------------
+		// Machine readable JSON report
+		// ------------------------------
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("url", Constants.RestAPIName + Constants.HandshakeRoute);
+		report.put("clients", clients);
+		report.put("targetRate", rate);
+		report.put("durationSeconds", durationSeconds);
+		report.put("issued", issued);
+		report.put("completed", completed.get());
+		report.put("errors", errors.get());
+		report.put("throughputPerSecond", Math.round(completed.get() / elapsedSeconds * 10) / 10.0);
+		report.put("keyPairPoolHits", Handshake.getKeyPairPool().getHits());
+		report.put("keyPairPoolMisses", Handshake.getKeyPairPool().getMisses());
+		Map<String, Object> phases = new LinkedHashMap<String, Object>();
+		phases.put("total", total.toMicrosSummary());
+		phases.put("keyGeneration", keyGeneration.toMicrosSummary());
+		phases.put("httpRoundTrip", http.toMicrosSummary());
+		phases.put("jsonParse", parse.toMicrosSummary());
+		phases.put("createSharedSecret", sharedSecret.toMicrosSummary());
+		phases.put("failed", failed.toMicrosSummary());
+		report.put("latencyMicros", phases);
+
+		String json = _reportGson.toJson(report);
+		System.out.println(json);
+		if (output != null) {
+			try (Writer writer = new FileWriter(output)) {
+				writer.write(json);
+			}
+		}
+	}
+}
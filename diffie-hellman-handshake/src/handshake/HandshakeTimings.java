@@ -0,0 +1,14 @@
+package handshake;
+
+//-------------------------------------------------------------------------
+// Time spent in each phase of one handshake, in nanoseconds.
+// Filled in by Handshake.HandshakeWithServerAsync; a phase that was
+// never reached (for example after an HTTP error) stays at -1.
+// -------------------------------------------------------------------------
+
+class HandshakeTimings {
+	long KeyGenerationNanos = -1;
+	long HttpNanos = -1;
+	long ParseNanos = -1;
+	long SharedSecretNanos = -1;
+}
@@ -0,0 +1,230 @@
+package handshake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.eclypses.ecdh.*;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import handshake.Models.*;
+
+//-------------------------------------------------------------------------
+// Local stand-in for the handshake API so handshakes can be tested
+// offline. It listens on the loopback interface only and implements
+// both the two key "/api/handshake" route and the single agreement
+// "/api/handshake/single" route. The secrets the server side derives
+// are kept so they can be compared with the client's secrets.
+// -------------------------------------------------------------------------
+
+public class LocalHandshakeServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	// ---------------------------------------------------
+	// Server side secrets by conversation. The server's
+	// Encoder secret pairs with the client's Decoder.
+	// ---------------------------------------------------
+	private final ConcurrentHashMap<String, HandshakeResponse> serverSecrets = new ConcurrentHashMap<String, HandshakeResponse>();
+
+	/**
+	 * Create the server on the loopback interface
+	 *
+	 * @param port --> port to listen on, 0 picks a free port
+	 * @throws IOException
+	 */
+	public LocalHandshakeServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.createContext(Constants.SingleHandshakeRoute, this::handleSingleAgreement);
+		server.createContext(Constants.HandshakeRoute, this::handleHandshake);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Base URL to use for Constants.RestAPIName
+	 */
+	public String getUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Secrets the server derived for a conversation
+	 *
+	 * @param conversationId --> conversation identifier
+	 * @return server side secrets or null if unknown
+	 */
+	public HandshakeResponse getServerSecrets(String conversationId) {
+		return serverSecrets.get(conversationId);
+	}
+
+	/**
+	 * Two agreement handshake, one per client Encoder and Decoder
+	 */
+	private void handleHandshake(HttpExchange exchange) throws IOException {
+		// "/api/handshake/..." is routed here too, only the exact route is valid
+		if (!exchange.getRequestURI().getPath().equals(Constants.HandshakeRoute)) {
+			sendError(exchange, 404, Constants.RC_VALIDATION_ERROR, "Unknown route.");
+			return;
+		}
+		try {
+			HandshakeModel request = parseRequest(exchange, HandshakeModel.class);
+			if (request == null || request.ConversationIdentifier == null || request.ConversationIdentifier.isEmpty()) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Missing or malformed request body.");
+				return;
+			}
+			if (request.ClientEncoderPublicKey == null || request.ClientDecoderPublicKey == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Missing client public key.");
+				return;
+			}
+			EclypsesECDH.Mode mode = parseMode(request.KeyAgreement);
+			if (mode == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Unknown key agreement.");
+				return;
+			}
+
+			// -----------------------------------------------------
+			// Server Decoder pairs with the client Encoder and the
+			// server Encoder pairs with the client Decoder
+			// -----------------------------------------------------
+			EclypsesECDH serverDecoderEcdh = new EclypsesECDH(mode);
+			EclypsesECDH serverEncoderEcdh = new EclypsesECDH(mode);
+			HandshakeModel reply = new HandshakeModel();
+			reply.ConversationIdentifier = request.ConversationIdentifier;
+			reply.Timestamp = String.valueOf(System.currentTimeMillis());
+			reply.ClientEncoderPublicKey = serverDecoderEcdh.getDevicePublicKey();
+			reply.ClientDecoderPublicKey = serverEncoderEcdh.getDevicePublicKey();
+
+			HandshakeResponse secrets = new HandshakeResponse();
+			secrets.DecoderSharedSecret = serverDecoderEcdh.createSharedSecret(request.ClientEncoderPublicKey);
+			secrets.EncoderSharedSecret = serverEncoderEcdh.createSharedSecret(request.ClientDecoderPublicKey);
+			if (secrets.DecoderSharedSecret == null || secrets.EncoderSharedSecret == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Invalid client public key.");
+				return;
+			}
+			serverSecrets.put(request.ConversationIdentifier, secrets);
+			sendJson(exchange, new ResponseModel<HandshakeModel>(reply));
+		} catch (Exception ex) {
+			sendError(exchange, 500, Constants.RC_HANDSHAKE_EXCEPTION, "Exception during handshake: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Single agreement handshake, both entropy values from HKDF
+	 */
+	private void handleSingleAgreement(HttpExchange exchange) throws IOException {
+		try {
+			SingleAgreementModel request = parseRequest(exchange, SingleAgreementModel.class);
+			if (request == null || request.ConversationIdentifier == null || request.ConversationIdentifier.isEmpty()) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Missing or malformed request body.");
+				return;
+			}
+			if (request.ClientPublicKey == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Missing client public key.");
+				return;
+			}
+			EclypsesECDH.Mode mode = parseMode(request.KeyAgreement);
+			if (mode == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Unknown key agreement.");
+				return;
+			}
+			EclypsesECDH ecdh = new EclypsesECDH(mode);
+			SingleAgreementModel reply = new SingleAgreementModel();
+			reply.ConversationIdentifier = request.ConversationIdentifier;
+			reply.Timestamp = String.valueOf(System.currentTimeMillis());
+			reply.ClientPublicKey = ecdh.getDevicePublicKey();
+
+			// -------------------------------------------------
+			// Labels are from the client's view: the server's
+			// Encoder pairs with the client's Decoder
+			// -------------------------------------------------
+			byte[][] derived = ecdh.deriveSharedSecrets(request.ClientPublicKey,
+					request.ConversationIdentifier.getBytes(StandardCharsets.UTF_8), Constants.DecoderEntropyLabel,
+					Constants.EncoderEntropyLabel);
+			if (derived == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Invalid client public key.");
+				return;
+			}
+			HandshakeResponse secrets = new HandshakeResponse();
+			secrets.EncoderSharedSecret = derived[0];
+			secrets.DecoderSharedSecret = derived[1];
+			serverSecrets.put(request.ConversationIdentifier, secrets);
+			sendJson(exchange, new ResponseModel<SingleAgreementModel>(reply));
+		} catch (Exception ex) {
+			sendError(exchange, 500, Constants.RC_HANDSHAKE_EXCEPTION, "Exception during handshake: " + ex.getMessage());
+		}
+	}
+
+	private static EclypsesECDH.Mode parseMode(String keyAgreement) {
+		if (keyAgreement == null || keyAgreement.isEmpty()) {
+			return EclypsesECDH.Mode.P256;
+		}
+		try {
+			return EclypsesECDH.Mode.valueOf(keyAgreement);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse the JSON request body
+	 *
+	 * @return the request or null when the body is empty or malformed
+	 */
+	private static <T> T parseRequest(HttpExchange exchange, Class<T> type) throws IOException {
+		try {
+			return Handshake._gson.fromJson(readBody(exchange), type);
+		} catch (JsonParseException | IllegalArgumentException e) {
+			// -------------------------------------------------
+			// IllegalArgumentException is a bad base64 key
+			// -------------------------------------------------
+			return null;
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int httpStatus, String resultCode, String message)
+			throws IOException {
+		ResponseModel<Object> errorResponse = new ResponseModel<Object>();
+		errorResponse.Success = false;
+		errorResponse.Message = message;
+		errorResponse.ResultCode = resultCode;
+		send(exchange, httpStatus, Handshake._gson.toJson(errorResponse));
+	}
+
+	private static void sendJson(HttpExchange exchange, Object response) throws IOException {
+		send(exchange, 200, Handshake._gson.toJson(response));
+	}
+
+	private static void send(HttpExchange exchange, int httpStatus, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", Constants.JsonContentType);
+		exchange.sendResponseHeaders(httpStatus, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package handshake.Models;
 
+import com.eclypses.ecdh.EclypsesECDH;
+
 public class Constants {
 	 //----------------------
      // MTE Client ID header
@@ -11,15 +13,42 @@ public class Constants {
      // ------------------
      // Use this URL when running API locally
      // public static String RestAPIName = "http://localhost:52603";
-     // Use this URL to use public Eclypses API
-     public static String RestAPIName = "https://dev-echo.eclypses.com";
+     // Use this URL to use public Eclypses API, or pass
+     // -Dmte.restApi=<url> to run against the MteLocalServer
+     public static String RestAPIName = System.getProperty("mte.restApi", "https://dev-echo.eclypses.com");
      public static String JsonContentType = "application/json";
      public static String TextContentType = "text/plain";
      
+     //-------------------------------
+     // Http connect and read timeouts
+     //-------------------------------
+     public static int ConnectTimeoutSeconds = 10;
+     public static int RequestTimeoutSeconds = 30;
+     
+     //------------------------------------------------------
+     // Number of pre-generated key pairs kept for handshakes
+     //------------------------------------------------------
+     public static int KeyPairPoolSize = 16;
+
+     //-----------------------------------------------------------
+     // Key agreement for handshakes. X25519 needs a server that
+     // accepts 32 byte raw public keys.
+     //-----------------------------------------------------------
+     public static EclypsesECDH.Mode KeyAgreementMode = EclypsesECDH.Mode.P256;
+     
      //---------------
      // RestApi Routes
      //---------------
      public static String HandshakeRoute = "/api/handshake";
+     public static String SingleHandshakeRoute = "/api/handshake/single";
+     
+     //-----------------------------------------------------------
+     // HKDF labels for the single agreement handshake. Labels are
+     // from the client's view, the server's Decoder uses the
+     // client Encoder label and the other way around.
+     //-----------------------------------------------------------
+     public static String EncoderEntropyLabel = "MTE client encoder entropy";
+     public static String DecoderEntropyLabel = "MTE client decoder entropy";
      
      //-------------------
      // result codes
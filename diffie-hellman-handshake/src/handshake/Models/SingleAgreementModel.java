@@ -0,0 +1,46 @@
+package handshake.Models;
+
+import com.google.gson.annotations.SerializedName;
+
+public class SingleAgreementModel {
+	
+	//--------------------------------------------
+	// Calculated on the server 
+	// sent back to the client and used for Nonce
+	//--------------------------------------------
+	@SerializedName(value="Timestamp")
+	public String Timestamp;
+	
+	//--------------------------------------------
+	// Session identifier determined by the client
+	// used as PK for storing the MTE STATE and as
+	// the HKDF salt for both entropy values
+	//--------------------------------------------
+	@SerializedName(value="ConversationIdentifier")
+	public String ConversationIdentifier;
+	
+	//-------------------------------------------------
+	// The one Diffie-Hellman public key of the client,
+	// the server answers with its own public key here.
+	// Encoder and Decoder entropy are both expanded
+	// from this single agreement.
+	//-------------------------------------------------
+	@SerializedName(value="ClientPublicKey")
+	public byte[] ClientPublicKey;
+	
+	//-------------------------------------------------
+	// Key agreement of the public key above. Only set
+	// for "X25519"; left null for P-256 X.509 keys.
+	//-------------------------------------------------
+	@SerializedName(value="KeyAgreement")
+	public String KeyAgreement;
+	
+	//--------------------------------------
+	// Create default SingleAgreementModel
+	//--------------------------------------
+	public SingleAgreementModel() {
+		this.Timestamp = "";
+		this.ConversationIdentifier = "";
+		this.ClientPublicKey = new byte[0];
+	}
+}
@@ -0,0 +1,168 @@
+package handshake;
+
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.KeyAgreement;
+
+import com.eclypses.ecdh.*;
+
+//-------------------------------------------------------------------------
+// Measures shared secret throughput (shared secrets per second) at 1, 8
+// and 32 threads for two paths:
+//   uncached  --> KeyFactory, KeyAgreement and MessageDigest looked up
+//                 with getInstance() on every call, as eclypses-ecdh
+//                 1.0.4 did
+//   per-thread --> EclypsesECDH.createSharedSecret with its per-thread
+//                 cached primitives
+// Every worker gets its key pairs before the start barrier so only the
+// key agreement and SHA-256 step is measured. The run is timed from the
+// barrier to the last worker finishing, and a failing worker fails the
+// benchmark.
+//
+// Usage: SharedSecretBenchmark [agreements per thread] [thread counts...]
+// -------------------------------------------------------------------------
+
+public class SharedSecretBenchmark {
+
+	// ------------------------------------------------------
+	// Prepared work for one worker, agree(i) does the i-th
+	// agreement and fails if no secret was created
+	// ------------------------------------------------------
+	private interface Batch {
+		void agree(int index) throws Exception;
+	}
+
+	private interface BatchFactory {
+		Batch prepare(int size) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int[] threadCounts = { 1, 8, 32 };
+		if (args.length > 1) {
+			threadCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				threadCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// ------------------------------------------
+		// The "server" side public key every device
+		// agrees with
+		// ------------------------------------------
+		byte[] partnerPublicKey = new EclypsesECDH().getDevicePublicKey();
+		BatchFactory uncached = size -> uncachedBatch(size, partnerPublicKey);
+		BatchFactory perThreadCached = size -> cachedBatch(size, partnerPublicKey);
+
+		// -----------------------------------------------
+		// Warm up so JIT and thread local caches are hot
+		// -----------------------------------------------
+		int warmUpThreads = threadCounts[threadCounts.length - 1];
+		run(warmUpThreads, 500, uncached);
+		run(warmUpThreads, 500, perThreadCached);
+
+		for (int threads : threadCounts) {
+			double uncachedPerSecond = run(threads, perThread, uncached);
+			double cachedPerSecond = run(threads, perThread, perThreadCached);
+			System.out.println(String.format("threads=%d uncached/s=%.0f per-thread/s=%.0f speedup=%.2fx", threads,
+					uncachedPerSecond, cachedPerSecond, cachedPerSecond / uncachedPerSecond));
+		}
+	}
+
+	/**
+	 * Run the prepared agreements on the given number of threads
+	 *
+	 * @param threads   --> number of worker threads
+	 * @param perThread --> agreements each thread does
+	 * @param factory   --> prepares each thread's agreements
+	 * @return shared secrets per second across all threads
+	 * @throws IllegalStateException if any worker failed
+	 */
+	private static double run(int threads, int perThread, BatchFactory factory) throws Exception {
+		// -------------------------------------------
+		// Key generation is excluded from the timing
+		// -------------------------------------------
+		Batch[] batches = new Batch[threads];
+		for (int t = 0; t < threads; t++) {
+			batches[t] = factory.prepare(perThread);
+		}
+
+		CyclicBarrier start = new CyclicBarrier(threads + 1);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			Batch batch = batches[t];
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+					for (int i = 0; i < perThread; i++) {
+						batch.agree(i);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			workers[t].start();
+		}
+		start.await();
+		long startNanos = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long elapsedNanos = System.nanoTime() - startNanos;
+		if (failure.get() != null) {
+			throw new IllegalStateException("Benchmark worker failed: " + failure.get(), failure.get());
+		}
+		return (long) threads * perThread / (elapsedNanos / 1_000_000_000.0);
+	}
+
+	/**
+	 * Agreements through EclypsesECDH with per-thread cached primitives
+	 */
+	private static Batch cachedBatch(int size, byte[] partnerPublicKey) {
+		EclypsesECDH[] devices = new EclypsesECDH[size];
+		for (int i = 0; i < size; i++) {
+			devices[i] = new EclypsesECDH();
+			if (devices[i].getDevicePublicKey() == null) {
+				throw new IllegalStateException("getDevicePublicKey failed.");
+			}
+		}
+		return index -> {
+			if (devices[index].createSharedSecret(partnerPublicKey) == null) {
+				throw new IllegalStateException("createSharedSecret failed.");
+			}
+		};
+	}
+
+	/**
+	 * Agreements that look every primitive up per call, the baseline
+	 */
+	private static Batch uncachedBatch(int size, byte[] partnerPublicKey) throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+		kpg.initialize(256);
+		PrivateKey[] privateKeys = new PrivateKey[size];
+		for (int i = 0; i < size; i++) {
+			KeyPair kp = kpg.generateKeyPair();
+			privateKeys[i] = kp.getPrivate();
+		}
+		return index -> {
+			KeyFactory kf = KeyFactory.getInstance("EC");
+			PublicKey partnerKey = kf.generatePublic(new X509EncodedKeySpec(partnerPublicKey));
+			KeyAgreement ka = KeyAgreement.getInstance("ECDH");
+			ka.init(privateKeys[index]);
+			ka.doPhase(partnerKey, true);
+			byte[] secret = MessageDigest.getInstance("SHA-256").digest(ka.generateSecret());
+			if (secret.length != EclypsesECDH.SHARED_SECRET_LENGTH) {
+				throw new IllegalStateException("Uncached agreement failed.");
+			}
+		};
+	}
+}
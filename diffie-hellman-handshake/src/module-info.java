@@ -1,6 +1,8 @@
 module HandshakeSample {
 	requires com.google.gson;
 	requires eclypses.ecdh;
+	requires jdk.httpserver;
+	requires java.net.http;
 	
 	exports handshake.Models to com.google.gson;
 }
\ No newline at end of file
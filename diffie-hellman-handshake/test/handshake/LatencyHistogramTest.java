@@ -0,0 +1,75 @@
+package handshake;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+//-------------------------------------------------------------------------
+// LatencyHistogram percentiles, min/max and the microsecond summary for
+// known recorded values.
+// -------------------------------------------------------------------------
+
+class LatencyHistogramTest {
+
+	@Test
+	void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals(100, histogram.getValueAtPercentile(100));
+		assertEquals(1, histogram.getValueAtPercentile(0));
+	}
+
+	@Test
+	void largeValuesAreWithinOnePercent() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 10_000; micros++) {
+			histogram.record(micros * 1000);
+		}
+		assertEquals(10_000, histogram.getCount());
+		assertWithinOnePercent(5_000_000, histogram.getValueAtPercentile(50));
+		assertWithinOnePercent(9_900_000, histogram.getValueAtPercentile(99));
+		assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	void summaryIsInMicroseconds() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		for (int i = 0; i < 98; i++) {
+			histogram.record(2_000);
+		}
+		histogram.record(1_000);
+		histogram.record(250_000);
+
+		Map<String, Object> summary = histogram.toMicrosSummary();
+		assertEquals(100L, summary.get("count"));
+		assertEquals(1.0, summary.get("min"));
+		assertEquals(250.0, summary.get("max"));
+		assertEquals(4.5, summary.get("mean"));
+		assertEquals(2.0, summary.get("p50"));
+		assertEquals(2.0, summary.get("p99"));
+		assertEquals(250.0, summary.get("p999"));
+	}
+
+	@Test
+	void emptyHistogramReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		Map<String, Object> summary = histogram.toMicrosSummary();
+		assertEquals(0L, summary.get("count"));
+		assertEquals(0.0, summary.get("max"));
+	}
+
+	private static void assertWithinOnePercent(long expected, long actual) {
+		assertTrue(Math.abs(actual - expected) <= expected / 100, "expected about " + expected + " but was " + actual);
+	}
+}
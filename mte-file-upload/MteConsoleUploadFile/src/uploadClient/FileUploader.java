@@ -26,25 +26,24 @@
 
 package uploadClient;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.eclypses.ecdh.EclypsesECDH;
+import com.eclypses.ecdh.EclypsesKeyPairPool;
 import com.eclypses.mte.*;
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
@@ -56,7 +55,7 @@ public class FileUploader {
 	// Max Re-Seed Interval for DRGB
 	//------------------------------
 	private static long maxSeed = 0;
-	private static float reseedPercentage = .9;
+	private static float reseedPercentage = .9f;
 
 	// --------------------------------------------------------
 	// Create gson object that be compatible with C-Sharp json
@@ -64,6 +63,13 @@ public class FileUploader {
 	public static final Gson gson = new GsonBuilder()
 			.registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter()).create();
 
+	// ----------------------------------------------------
+	// Pre-generated key pairs so re-handshakes do not
+	// wait on key generation
+	// ----------------------------------------------------
+	private static final EclypsesKeyPairPool keyPairPool = new EclypsesKeyPairPool(Constants.KeyPairPoolSize,
+			Constants.KeyAgreementMode);
+
 	// ------------------------
 	// Using base64 libraries
 	// ------------------------
@@ -117,173 +123,96 @@ public class FileUploader {
 			String url = Constants.RestAPIName + "/FileUpload/mte?name=" + textFileName;
 			String charset = "UTF-8";
 
-			// ---------------------
-			// Open url connection
-			// ---------------------
-			URLConnection connection = new URL(url).openConnection();
-			connection.setDoOutput(true);
-			connection.setRequestProperty("Accept-Charset", charset);
-
 			// ------------------------------------------------
 			// set the content type based on using MTE or not
 			// ------------------------------------------------
 			String contentType = "application/octet-stream;charset=";
-			connection.setRequestProperty("Content-Type", contentType + charset);
-
-			// -------------------------
-			// Add client id to header
-			// -------------------------
-			connection.setRequestProperty(Constants.ClientIdHeader, clientId);
-
-			// ---------------------------
-			// Create MKE Encoder object
-			// ---------------------------
-			MteMkeEnc mkeEncoder = new MteMkeEnc();
-
-			// ----------------------------
-			// Restore Encoder
-			// ----------------------------
-
-			MteStatus encoderStatus = mkeEncoder.restoreStateB64(handshake.EncoderState);
-			if (encoderStatus != MteStatus.mte_status_success) {
-				System.out.println("Error restoring the Encoder mte state for Client " + clientId + ": "
-						+ MteBase.getStatusDescription(encoderStatus));
-				throw new Exception("Error restoring the Encoder mte state for Client " + clientId + ": "
-						+ MteBase.getStatusDescription(encoderStatus));
-			}
-
-			// -----------------------------
-			// Initialize chunking session
-			// -----------------------------
-			encoderStatus = mkeEncoder.startEncrypt();
-			if (encoderStatus != MteStatus.mte_status_success) {
-				throw new Exception("Failed to start encode chunk. Status: " + MteBase.getStatusName(encoderStatus)
-						+ " / " + MteBase.getStatusDescription(encoderStatus));
-			}
-
-			// -----------------
-			// Set buffer size
-			// -----------------
-			byte[] dataBuffer = new byte[1024];
-
-			// --------------------
-			// Set out put stream
-			// --------------------
-			try (OutputStream output = connection.getOutputStream();) {
-				// --------------------------------
-				// Write the actual file contents
-				// --------------------------------
-				FileInputStream inputStream = new FileInputStream(textFile);
-
-				// -----------------------------------------
-				// read contents of file into input stream
-				// -----------------------------------------
-				int bytesRead;
-				while ((bytesRead = inputStream.read(dataBuffer)) != -1) {
 
-					// ------------------------------------------------------------
-					// Encode the data in place - encoded data put back in buffer
-					// ------------------------------------------------------------
-					MteStatus chunkStatus = mkeEncoder.encryptChunk(dataBuffer, 0, bytesRead);
-					if (chunkStatus != MteStatus.mte_status_success) {
-						throw new Exception("Failed to encode chunk. Status: " + MteBase.getStatusName(chunkStatus)
-								+ " / " + MteBase.getStatusDescription(chunkStatus));
+			// -----------------------------------------------------
+			// Build the request on the shared transport. Uploads
+			// have no read deadline since streaming a large file
+			// can take longer than Constants.RequestTimeoutSeconds
+			// -----------------------------------------------------
+			HttpRequest.Builder requestBuilder = HttpTransport.NewUploadRequest(url, clientId, contentType + charset)
+					.header("Accept-Charset", charset);
+
+			// ---------------------------------------------------------
+			// The file is encoded as the request body is streamed out,
+			// so it never has to be held in memory. The client may ask
+			// for the body more than once, so every call restores a
+			// fresh Encoder and opens the file again.
+			// ---------------------------------------------------------
+			String encoderState = handshake.EncoderState;
+			AtomicReference<MkeEncryptInputStream> encodedFile = new AtomicReference<MkeEncryptInputStream>();
+			HttpRequest request = requestBuilder.POST(HttpRequest.BodyPublishers.ofInputStream(() -> {
+				try {
+					MkeEncryptInputStream stream = new MkeEncryptInputStream(new FileInputStream(textFile),
+							StartEncoder(encoderState, clientId));
+					MkeEncryptInputStream previous = encodedFile.getAndSet(stream);
+					if (previous != null) {
+						previous.close();
 					}
-
-					// ------------------------
-					// Write to output writer
-					// ------------------------
-					output.write(dataBuffer, 0, bytesRead);
-
+					return stream;
+				} catch (Exception e) {
+					throw new UncheckedIOException(new IOException(e.getMessage(), e));
 				}
-
-				// ----------------------
-				// finalize MTE session
-				// ----------------------
-
-				MteBase.ArrStatus finalEncodedChunk = mkeEncoder.finishEncrypt();
-				if (finalEncodedChunk.status != MteStatus.mte_status_success) {
-					// -----------------------------------------------
-					// First close inputStream to prevent memory leak
-					// -----------------------------------------------
-					inputStream.close();
-					throw new Exception(
-							"Failed to finish encode chunk. Status: " + MteBase.getStatusName(finalEncodedChunk.status)
-									+ " / " + MteBase.getStatusDescription(finalEncodedChunk.status));
-
+			})).build();
+			HttpResponse<InputStream> httpResponse;
+			String text;
+			try {
+				httpResponse = HttpTransport.getClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+				// ---------------------------------
+				// Read the whole response body in
+				// ---------------------------------
+				try (InputStream in = httpResponse.body()) {
+					text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
 				}
-				// -------------------------------------
-				// Write final encoded chunk to output
-				// -------------------------------------
-				output.write(finalEncodedChunk.arr);
-
-				// -------------------------
-				// close/flush output
-				// close inputStream
-				// -------------------------
-				output.flush();
-				inputStream.close();
-				
-				//-------------------------
-				// Check current seed life
-				//-------------------------
-				long currentSeed = mkeEncoder.getReseedCounter();
-				
-				if(currentSeed > (maxSeed * reseedPercentage)) {
-					// Uninstantiate the Decoder
-					encoderStatus = mkeEncoder.uninstantiate();
-					if(encoderStatus != MteStatus.mte_status_success)
-					{
-					    // MTE was not uninstantiated as desired so handle failure appropriately
-					    // Below is only an example
-					    throw new Exception("Failed to uninstantiate Encoder. Status: "
-					        + MteBase.getStatusName(encoderStatus)+ " / "
-					        + MteBase.getStatusDescription(encoderStatus));
-					}
-					
-					ResponseModel<HandshakeResponse> updateHandshakeResponse = HandshakeWithServer(clientId);
-					if (!updateHandshakeResponse.Success) {
-						throw new Exception("Re-Handshake unsuccessful, message:" + updateHandshakeResponse.Message);
-					}
-					
-					// Need to update the Encoder AND Decoder since handshake updates both
-					handshake.DecoderState = updateHandshakeResponse.Data.DecoderState;
-					handshake.EncoderState = updateHandshakeResponse.Data.EncoderState;
-				}else {
-
-					// ----------------------------
-					// save updated Encoder state
-					// ----------------------------
-					handshake.EncoderState = mkeEncoder.saveStateB64();
+			} finally {
+				if (encodedFile.get() != null) {
+					encodedFile.get().close();
+				}
+			}
+			int responseCode = httpResponse.statusCode();
+			if (encodedFile.get() == null || !encodedFile.get().isFinished()) {
+				throw new Exception("Upload ended before the whole file was encoded.");
+			}
+			MteMkeEnc mkeEncoder = encodedFile.get().getEncoder();
+			MteStatus encoderStatus;
+
+			//-------------------------
+			// Check current seed life
+			//-------------------------
+			long encoderSeed = mkeEncoder.getReseedCounter();
+			
+			if(encoderSeed > (maxSeed * reseedPercentage)) {
+				// Uninstantiate the Decoder
+				encoderStatus = mkeEncoder.uninstantiate();
+				if(encoderStatus != MteStatus.mte_status_success)
+				{
+				    // MTE was not uninstantiated as desired so handle failure appropriately
+				    // Below is only an example
+				    throw new Exception("Failed to uninstantiate Encoder. Status: "
+				        + MteBase.getStatusName(encoderStatus)+ " / "
+				        + MteBase.getStatusDescription(encoderStatus));
 				}
-
 				
+				ResponseModel<HandshakeResponse> updateHandshakeResponse = HandshakeWithServer(clientId);
+				if (!updateHandshakeResponse.Success) {
+					throw new Exception("Re-Handshake unsuccessful, message:" + updateHandshakeResponse.Message);
+				}
 				
-
+				// Need to update the Encoder AND Decoder since handshake updates both
+				handshake.DecoderState = updateHandshakeResponse.Data.DecoderState;
+				handshake.EncoderState = updateHandshakeResponse.Data.EncoderState;
+			}else {
+
+				// ----------------------------
+				// save updated Encoder state
+				// ----------------------------
+				handshake.EncoderState = mkeEncoder.saveStateB64();
 			}
 
-			// ---------------------------------------------------------------
-			// Request is lazily fired whenever you need to obtain response.
-			// ---------------------------------------------------------------
-			int responseCode = ((HttpURLConnection) connection).getResponseCode();
-
-			// ---------------
-			// Get inStream
-			// ---------------
-			InputStream in = new BufferedInputStream(connection.getInputStream());
-			int bytesReadInstream;
-			ByteArrayOutputStream inBuffer = new ByteArrayOutputStream();
-			// -----------------------
-			// Iterate through input
-			// -----------------------
-			while ((bytesReadInstream = in.read(dataBuffer, 0, dataBuffer.length)) != -1) {
-				inBuffer.write(dataBuffer, 0, bytesReadInstream);
-			}
-			// --------------------------------
-			// Flush buffer and set to string
-			// --------------------------------
-			inBuffer.flush();
-			String text = inBuffer.toString();
 			// -------------------------------
 			// Deserialize to response model
 			// -------------------------------
@@ -430,21 +359,24 @@ public class FileUploader {
 			// -------------------------------------------
 			// Create eclypses DH containers for handshake
 			// -------------------------------------------
-			EclypsesECDH encoderEcdh = new EclypsesECDH();
-			EclypsesECDH decoderEcdh = new EclypsesECDH();
+			EclypsesECDH encoderEcdh = new EclypsesECDH(keyPairPool);
+			EclypsesECDH decoderEcdh = new EclypsesECDH(keyPairPool);
 
 			// -------------------------------------------
 			// Get the public key to send to other side
 			// -------------------------------------------
 			handshake.ClientEncoderPublicKey = encoderEcdh.getDevicePublicKey();
 			handshake.ClientDecoderPublicKey = decoderEcdh.getDevicePublicKey();
+			if (Constants.KeyAgreementMode != EclypsesECDH.Mode.P256) {
+				handshake.KeyAgreement = Constants.KeyAgreementMode.name();
+			}
 
 			// -------------------
 			// Perform handshake
 			// -------------------
 			String handshakeString = gson.toJson(handshake);
-			String handshakeResponse = MakeHttpCall(Constants.RestAPIName + Constants.HandshakeRoute, "POST",
-					handshake.ConversationIdentifier, Constants.JsonContentType, handshakeString);
+			String handshakeResponse = HttpTransport.MakeHttpCall(Constants.RestAPIName + Constants.HandshakeRoute,
+					"POST", handshake.ConversationIdentifier, Constants.JsonContentType, handshakeString);
 
 			// ---------------------------------------
 			// Deserialize the result from handshake
@@ -483,6 +415,10 @@ public class FileUploader {
 			encoder.setEntropy(encoderSharedSecret);
 			encoder.setNonce(Long.parseLong(serverResponse.Data.Timestamp));
 			MteStatus status = encoder.instantiate(clientId);
+			// -----------------------------------------
+			// Entropy is no longer needed, zeroize it
+			// -----------------------------------------
+			Arrays.fill(encoderSharedSecret, (byte) 0);
 			if (status != MteStatus.mte_status_success) {
 				response.Message = "Error creating Encoder: Status: " + MteBase.getStatusName(status) + " / "
 						+ MteBase.getStatusDescription(status);
@@ -508,6 +444,10 @@ public class FileUploader {
 			decoder.setEntropy(decoderSharedSecret);
 			decoder.setNonce(Long.parseLong(serverResponse.Data.Timestamp));
 			status = decoder.instantiate(clientId);
+			// -----------------------------------------
+			// Entropy is no longer needed, zeroize it
+			// -----------------------------------------
+			Arrays.fill(decoderSharedSecret, (byte) 0);
 			if (status != MteStatus.mte_status_success) {
 				response.Message = "Error creating Decoder: Status: " + MteBase.getStatusName(status) + " / "
 						+ MteBase.getStatusDescription(status);
@@ -533,97 +473,121 @@ public class FileUploader {
 	}
 
 	/**
-	 * Make the Http Call
+	 * Restore the MKE Encoder and start a chunking session
 	 * 
-	 * @param connectionUrl    --> Connection URL
-	 * @param connectionMethod --> Connection Method
-	 * @param clientId         --> Current client id
-	 * @param contentType      --> http content type
-	 * @param payload          --> http call payload
-	 * @return
+	 * @param encoderState --> saved Encoder state
+	 * @param clientId     --> Current client id
+	 * @return Encoder ready for encryptChunk
+	 * @throws Exception
 	 */
-	private static String MakeHttpCall(String connectionUrl, 
-								String connectionMethod, 
-								String clientId,
-								String contentType, 
-								String payload) 
-	{
-		String returnPayload = "";
-		try {
-			// -----------------------------------------
-			// Set URI and other default Http settings
-			// -----------------------------------------
-			URL url = new URL(connectionUrl);
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-			// ---------------------------
-			// Check if we have a payload
-			// ---------------------------
-			if (payload != null && !payload.isEmpty()) {
-				conn.setDoOutput(true);
-			}
-			conn.setRequestMethod(connectionMethod);
-			conn.setRequestProperty("Content-Type", contentType);
-
-			// -------------------------
-			// Add client id to header
-			// -------------------------
-			conn.setRequestProperty(Constants.ClientIdHeader, clientId);
-
-			OutputStream os = conn.getOutputStream();
-			os.write(payload.getBytes());
-			os.flush();
-
-			// --------------------------------------------------
-			// If we did not get a good connection return error
-			// --------------------------------------------------
-			if (conn.getResponseCode() < HttpURLConnection.HTTP_OK || conn.getResponseCode() > 299) {
-
-				// ------------------------------------------------------
-				// Create error response to send back to calling method
-				// ------------------------------------------------------
-				ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-				errorResponse.Data = null;
-				errorResponse.Message = "Failed : HTTP error code : " + conn.getResponseCode();
-				errorResponse.ResultCode = Constants.RC_HTTP_ERROR;
-				returnPayload = gson.toJson(errorResponse);
-				return returnPayload;
-			}
+	private static MteMkeEnc StartEncoder(String encoderState, String clientId) throws Exception {
+		// ---------------------------
+		// Create MKE Encoder object
+		// ---------------------------
+		MteMkeEnc mkeEncoder = new MteMkeEnc();
+
+		// ----------------------------
+		// Restore Encoder
+		// ----------------------------
+		MteStatus encoderStatus = mkeEncoder.restoreStateB64(encoderState);
+		if (encoderStatus != MteStatus.mte_status_success) {
+			System.out.println("Error restoring the Encoder mte state for Client " + clientId + ": "
+					+ MteBase.getStatusDescription(encoderStatus));
+			throw new Exception("Error restoring the Encoder mte state for Client " + clientId + ": "
+					+ MteBase.getStatusDescription(encoderStatus));
+		}
 
-			// -------------------------
-			// Read in the inputStream
-			// -------------------------
-			BufferedReader br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
+		// -----------------------------
+		// Initialize chunking session
+		// -----------------------------
+		encoderStatus = mkeEncoder.startEncrypt();
+		if (encoderStatus != MteStatus.mte_status_success) {
+			throw new Exception("Failed to start encode chunk. Status: " + MteBase.getStatusName(encoderStatus)
+					+ " / " + MteBase.getStatusDescription(encoderStatus));
+		}
+		return mkeEncoder;
+	}
 
-			// --------------------
-			// Assign the payload
-			// --------------------
-			returnPayload = br.readLine();
+	// ---------------------------------------------------------------
+	// Reads a file and MKE encrypts it chunk by chunk as it is read.
+	// At the end of the file the final encrypted chunk is appended.
+	// ---------------------------------------------------------------
+	private static class MkeEncryptInputStream extends InputStream {
+		private final InputStream source;
+		private final MteMkeEnc mkeEncoder;
+		private byte[] finalChunk;
+		private int finalOffset;
+		private boolean finished;
+
+		MkeEncryptInputStream(InputStream source, MteMkeEnc mkeEncoder) {
+			this.source = source;
+			this.mkeEncoder = mkeEncoder;
+		}
 
-			// ---------------------------
-			// Disconnect the connection
-			// ---------------------------
-			conn.disconnect();
+		/**
+		 * The Encoder this stream encrypts with
+		 */
+		MteMkeEnc getEncoder() {
+			return mkeEncoder;
+		}
 
-		} catch (MalformedURLException e) {
+		/**
+		 * True once the final encrypted chunk has been read
+		 */
+		boolean isFinished() {
+			return finished;
+		}
 
-			e.printStackTrace();
-			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-			errorResponse.Data = null;
-			errorResponse.Message = "MalformedURLException in MakeHtteCall : " + e.getMessage();
-			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-			returnPayload = gson.toJson(errorResponse);
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int bytesRead = read(single, 0, 1);
+			return bytesRead == -1 ? -1 : single[0] & 0xff;
+		}
 
-		} catch (IOException e) {
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (finalChunk == null) {
+				int bytesRead = source.read(buffer, offset, length);
+				if (bytesRead > 0) {
+					// ------------------------------------------------------------
+					// Encode the data in place - encoded data put back in buffer
+					// ------------------------------------------------------------
+					MteStatus chunkStatus = mkeEncoder.encryptChunk(buffer, offset, bytesRead);
+					if (chunkStatus != MteStatus.mte_status_success) {
+						throw new IOException("Failed to encode chunk. Status: " + MteBase.getStatusName(chunkStatus)
+								+ " / " + MteBase.getStatusDescription(chunkStatus));
+					}
+					return bytesRead;
+				}
 
-			e.printStackTrace();
-			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-			errorResponse.Data = null;
-			errorResponse.Message = "IOException in MakeHttpCall : " + e.getMessage();
-			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-			returnPayload = gson.toJson(errorResponse);
+				// ----------------------
+				// finalize MTE session
+				// ----------------------
+				MteBase.ArrStatus finalEncodedChunk = mkeEncoder.finishEncrypt();
+				if (finalEncodedChunk.status != MteStatus.mte_status_success) {
+					throw new IOException(
+							"Failed to finish encode chunk. Status: " + MteBase.getStatusName(finalEncodedChunk.status)
+									+ " / " + MteBase.getStatusDescription(finalEncodedChunk.status));
+				}
+				finalChunk = finalEncodedChunk.arr == null ? new byte[0] : finalEncodedChunk.arr;
+			}
+			if (finalOffset == finalChunk.length) {
+				finished = true;
+				return -1;
+			}
+			int copied = Math.min(length, finalChunk.length - finalOffset);
+			System.arraycopy(finalChunk, finalOffset, buffer, offset, copied);
+			finalOffset += copied;
+			return copied;
+		}
 
+		@Override
+		public void close() throws IOException {
+			source.close();
 		}
-		return returnPayload;
 	}
 }
@@ -59,6 +59,14 @@ public class HandshakeModel {
 	@SerializedName(value="ClientDecoderPublicKey")
 	public byte[] ClientDecoderPublicKey;
 	
+	//-------------------------------------------------
+	// Key agreement of the public keys above. Only set
+	// for "X25519" (32 byte raw keys); left null and not
+	// sent for the default P-256 X.509 keys.
+	//-------------------------------------------------
+	@SerializedName(value="KeyAgreement")
+	public String KeyAgreement;
+	
 	//--------------------------------
 	// Create default HandshakeModel
 	//--------------------------------
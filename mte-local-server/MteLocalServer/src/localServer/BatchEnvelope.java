@@ -0,0 +1,102 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package localServer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//-------------------------------------------------------------------------
+// Length-prefixed envelope carrying several MTE messages in one request
+// or response body, all big-endian:
+//
+//   message count (4) | length (4) | message | length (4) | message ...
+//
+// The same format is used by the multi-client sample's batch mode.
+// -------------------------------------------------------------------------
+
+public final class BatchEnvelope {
+
+	private BatchEnvelope() {
+	}
+
+	/**
+	 * Pack the messages into one envelope
+	 * 
+	 * @param messages --> messages in order
+	 * @return envelope bytes
+	 */
+	public static byte[] Pack(List<byte[]> messages) {
+		int size = 4;
+		for (byte[] message : messages) {
+			size += 4 + message.length;
+		}
+		ByteBuffer envelope = ByteBuffer.allocate(size);
+		envelope.putInt(messages.size());
+		for (byte[] message : messages) {
+			envelope.putInt(message.length);
+			envelope.put(message);
+		}
+		return envelope.array();
+	}
+
+	/**
+	 * Unpack an envelope
+	 * 
+	 * @param envelope    --> envelope bytes
+	 * @param maxMessages --> most messages accepted
+	 * @return messages in order
+	 * @throws IllegalArgumentException if the envelope is malformed
+	 */
+	public static List<byte[]> Unpack(byte[] envelope, int maxMessages) {
+		ByteBuffer buffer = ByteBuffer.wrap(envelope);
+		if (buffer.remaining() < 4) {
+			throw new IllegalArgumentException("Batch envelope is too short.");
+		}
+		int count = buffer.getInt();
+		if (count < 1 || count > maxMessages) {
+			throw new IllegalArgumentException("Batch envelope holds " + count + " messages, expected 1 to " + maxMessages + ".");
+		}
+		List<byte[]> messages = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < 4) {
+				throw new IllegalArgumentException("Batch envelope is truncated.");
+			}
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IllegalArgumentException("Batch envelope is truncated.");
+			}
+			byte[] message = new byte[length];
+			buffer.get(message);
+			messages.add(message);
+		}
+		if (buffer.hasRemaining()) {
+			throw new IllegalArgumentException("Batch envelope has trailing bytes.");
+		}
+		return messages;
+	}
+}
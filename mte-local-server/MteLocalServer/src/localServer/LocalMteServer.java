@@ -0,0 +1,607 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package localServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.eclypses.ecdh.EclypsesECDH;
+import com.eclypses.mte.*;
+import com.eclypses.mte.MteBase.StrStatus;
+import com.google.gson.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import localServer.Models.*;
+
+//-------------------------------------------------------------------------
+// Local stand-in for the MTE demo API so the handshake, multi-client and
+// file upload samples can run offline at loopback speed. It implements
+// "/api/handshake", "/api/multiclient", "/api/multiclient/batch",
+// "/api/login", "/FileUpload/mte" and "/FileUploadLogin/mte" with real
+// MTE Encoders and Decoders, paired
+// with the client through the same ECDH handshake as the public API.
+// -------------------------------------------------------------------------
+
+public class LocalMteServer {
+
+	// --------------------------------------------------------
+	// Create gson object that be compatible with C-Sharp json
+	// --------------------------------------------------------
+	public static final Gson gson = new GsonBuilder()
+			.registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter()).create();
+
+	// ------------------------
+	// Using base64 libraries
+	// ------------------------
+	private static class ByteArrayToBase64TypeAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+		public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
+				throws JsonParseException {
+			return Base64.getDecoder().decode(json.getAsString());
+		}
+
+		public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
+			return new JsonPrimitive(Base64.getEncoder().encodeToString(src));
+		}
+	}
+
+	// ---------------------------------------------------------
+	// Server side MTE states for one conversation. The server
+	// Encoder pairs with the client Decoder and vice versa.
+	// Requests for the same conversation lock this object so
+	// the states are updated one message at a time.
+	// ---------------------------------------------------------
+	private static class Conversation {
+		String EncoderState;
+		String DecoderState;
+		String AccessToken;
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<String, Conversation> conversations = new ConcurrentHashMap<String, Conversation>();
+
+	/**
+	 * Run the local server until the process is stopped
+	 * 
+	 * @param args --> optional port, defaults to Constants.DefaultPort
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		// -------------------------------------------------------------------------
+		// Initialize MTE license. If a license code is not required (e.g., trial
+		// mode), this can be skipped. This demo attempts to load the license info
+		// from the environment if required.
+		// -------------------------------------------------------------------------
+		if (!MteBase.initLicense("YOUR_COMPANY", "YOUR_LICENSE")) {
+			String company = System.getenv("MTE_COMPANY");
+			String license = System.getenv("MTE_LICENSE");
+			if (company == null || license == null || !MteBase.initLicense(company, license)) {
+				MteStatus status = MteStatus.mte_status_license_error;
+				System.err.println("License error (" + MteBase.getStatusName(status) + "): "
+						+ MteBase.getStatusDescription(status));
+				System.exit(status.getValue());
+			}
+		}
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : Constants.DefaultPort;
+		LocalMteServer localServer = new LocalMteServer(port);
+		localServer.start();
+		System.out.println("MTE local server listening on " + localServer.getUrl());
+		System.out.println("Run the clients with -Dmte.restApi=" + localServer.getUrl());
+	}
+
+	/**
+	 * Create the server on the loopback interface
+	 * 
+	 * @param port --> port to listen on, 0 picks a free port
+	 * @throws IOException
+	 */
+	public LocalMteServer(int port) throws IOException {
+		// ------------------------------------------------------------------
+		// The JDK server closes keep-alive connections above 200 idle ones,
+		// which many clients then reuse and fail on. Must be set before the
+		// first server is created.
+		// ------------------------------------------------------------------
+		if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+			System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(Constants.ServerBacklog));
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Constants.ServerBacklog);
+		executor = Executors.newFixedThreadPool(Constants.ServerThreads);
+		server.setExecutor(executor);
+		server.createContext(Constants.HandshakeRoute, this::handleHandshake);
+		server.createContext(Constants.MultiClientRoute, this::handleMultiClient);
+		server.createContext(Constants.MultiClientBatchRoute, this::handleMultiClientBatch);
+		server.createContext(Constants.LoginRoute, this::handleLogin);
+		server.createContext(Constants.FileUploadRoute, exchange -> handleFileUpload(exchange, false));
+		server.createContext(Constants.FileUploadLoginRoute, exchange -> handleFileUpload(exchange, true));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Base URL to give the clients as their Rest API name
+	 */
+	public String getUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Number of conversations the server holds MTE state for
+	 */
+	public int getConversationCount() {
+		return conversations.size();
+	}
+
+	/**
+	 * Handshake with the client and create the server MTE states
+	 */
+	private void handleHandshake(HttpExchange exchange) throws IOException {
+		try {
+			HandshakeModel request = gson.fromJson(readBody(exchange), HandshakeModel.class);
+			if (request == null || request.ConversationIdentifier == null || request.ConversationIdentifier.isEmpty()) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Missing conversation identifier.");
+				return;
+			}
+			EclypsesECDH.Mode mode = parseMode(request.KeyAgreement);
+			if (mode == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Unknown key agreement.");
+				return;
+			}
+
+			// -----------------------------------------------------
+			// Server Decoder pairs with the client Encoder and the
+			// server Encoder pairs with the client Decoder
+			// -----------------------------------------------------
+			EclypsesECDH decoderEcdh = new EclypsesECDH(mode);
+			EclypsesECDH encoderEcdh = new EclypsesECDH(mode);
+			HandshakeModel reply = new HandshakeModel();
+			reply.ConversationIdentifier = request.ConversationIdentifier;
+			reply.Timestamp = String.valueOf(System.currentTimeMillis());
+			reply.ClientEncoderPublicKey = decoderEcdh.getDevicePublicKey();
+			reply.ClientDecoderPublicKey = encoderEcdh.getDevicePublicKey();
+			byte[] decoderSharedSecret = decoderEcdh.createSharedSecret(request.ClientEncoderPublicKey);
+			byte[] encoderSharedSecret = encoderEcdh.createSharedSecret(request.ClientDecoderPublicKey);
+			if (decoderSharedSecret == null || encoderSharedSecret == null) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, "Invalid client public key.");
+				return;
+			}
+
+			// ----------------------------------------------
+			// Create the server MTE Encoder and Decoder with
+			// the same nonce and personalization as the client
+			// ----------------------------------------------
+			long nonce = Long.parseLong(reply.Timestamp);
+			Conversation conversation = new Conversation();
+			MteEnc encoder = new MteEnc();
+			encoder.setEntropy(encoderSharedSecret);
+			encoder.setNonce(nonce);
+			MteStatus status = encoder.instantiate(request.ConversationIdentifier);
+			Arrays.fill(encoderSharedSecret, (byte) 0);
+			if (status != MteStatus.mte_status_success) {
+				sendError(exchange, 200, Constants.RC_MTE_STATE_CREATION, "Error creating Encoder: Status: "
+						+ MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
+				return;
+			}
+			conversation.EncoderState = encoder.saveStateB64();
+
+			MteDec decoder = new MteDec();
+			decoder.setEntropy(decoderSharedSecret);
+			decoder.setNonce(nonce);
+			status = decoder.instantiate(request.ConversationIdentifier);
+			Arrays.fill(decoderSharedSecret, (byte) 0);
+			if (status != MteStatus.mte_status_success) {
+				sendError(exchange, 200, Constants.RC_MTE_STATE_CREATION, "Error creating Decoder: Status: "
+						+ MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
+				return;
+			}
+			conversation.DecoderState = decoder.saveStateB64();
+
+			// ---------------------------------------------------
+			// A re-handshake replaces the states but keeps the
+			// login so uploads with the current JWT still work
+			// ---------------------------------------------------
+			Conversation previous = conversations.put(request.ConversationIdentifier, conversation);
+			if (previous != null) {
+				conversation.AccessToken = previous.AccessToken;
+			}
+			sendJson(exchange, new ResponseModel<HandshakeModel>(reply));
+		} catch (Exception ex) {
+			sendError(exchange, 200, Constants.RC_HANDSHAKE_EXCEPTION, "Exception during handshake: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Decode a Core MTE message and send it back encoded
+	 */
+	private void handleMultiClient(HttpExchange exchange) throws IOException {
+		try {
+			Conversation conversation = findConversation(exchange);
+			if (conversation == null) {
+				return;
+			}
+			String payload = readBody(exchange);
+			String encodedReply;
+			synchronized (conversation) {
+				MteDec decoder = restoreDecoder(conversation);
+				StrStatus decoded = decoder.decodeStrB64(payload);
+				if (decoded.status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Error decoding the message: "
+							+ MteBase.getStatusDescription(decoded.status));
+					return;
+				}
+				MteEnc encoder = restoreEncoder(conversation);
+				StrStatus encoded = encoder.encodeB64(decoded.str);
+				if (encoded.status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_ENCODE_EXCEPTION, "Error encoding the message: "
+							+ MteBase.getStatusDescription(encoded.status));
+					return;
+				}
+				conversation.DecoderState = decoder.saveStateB64();
+				conversation.EncoderState = encoder.saveStateB64();
+				encodedReply = encoded.str;
+			}
+			sendJson(exchange, new ResponseModel<String>(encodedReply));
+		} catch (Exception ex) {
+			sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Exception in multi client: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Decode a batch envelope of Core MTE messages and send back an
+	 * envelope with each one encoded, in the same order. The states
+	 * are restored and saved once per batch and only if every message
+	 * in it succeeds.
+	 */
+	private void handleMultiClientBatch(HttpExchange exchange) throws IOException {
+		try {
+			Conversation conversation = findConversation(exchange);
+			if (conversation == null) {
+				return;
+			}
+			List<byte[]> messages;
+			try (InputStream in = exchange.getRequestBody()) {
+				messages = BatchEnvelope.Unpack(in.readAllBytes(), Constants.MaxBatchMessages);
+			} catch (IllegalArgumentException ex) {
+				sendError(exchange, 400, Constants.RC_VALIDATION_ERROR, ex.getMessage());
+				return;
+			}
+			List<byte[]> replies = new ArrayList<byte[]>(messages.size());
+			synchronized (conversation) {
+				MteDec decoder = restoreDecoder(conversation);
+				MteEnc encoder = restoreEncoder(conversation);
+				for (byte[] message : messages) {
+					MteBase.ArrStatus decoded = decoder.decode(message);
+					if (decoded.status != MteStatus.mte_status_success) {
+						sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Error decoding the message: "
+								+ MteBase.getStatusDescription(decoded.status));
+						return;
+					}
+					MteBase.ArrStatus encoded = encoder.encode(decoded.arr);
+					if (encoded.status != MteStatus.mte_status_success) {
+						sendError(exchange, 200, Constants.RC_MTE_ENCODE_EXCEPTION, "Error encoding the message: "
+								+ MteBase.getStatusDescription(encoded.status));
+						return;
+					}
+					replies.add(encoded.arr);
+				}
+				conversation.DecoderState = decoder.saveStateB64();
+				conversation.EncoderState = encoder.saveStateB64();
+			}
+			sendBinary(exchange, BatchEnvelope.Pack(replies));
+		} catch (Exception ex) {
+			sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Exception in multi client batch: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Decode a Core MTE login and hand out an access token
+	 */
+	private void handleLogin(HttpExchange exchange) throws IOException {
+		try {
+			Conversation conversation = findConversation(exchange);
+			if (conversation == null) {
+				return;
+			}
+			String payload = readBody(exchange);
+			ResponseModel<String> response = new ResponseModel<String>();
+			synchronized (conversation) {
+				MteDec decoder = restoreDecoder(conversation);
+				StrStatus decoded = decoder.decodeStrB64(payload);
+				if (decoded.status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Failed to decode login. Status: "
+							+ MteBase.getStatusDescription(decoded.status));
+					return;
+				}
+				// ---------------------------------------------------
+				// The client Encoder moved on, keep the Decoder in
+				// sync even if the login itself is rejected
+				// ---------------------------------------------------
+				conversation.DecoderState = decoder.saveStateB64();
+				LoginModel login = gson.fromJson(decoded.str, LoginModel.class);
+				if (login == null || !Constants.LoginUsername.equals(login.Username)
+						|| !Constants.LoginPassword.equals(login.Password)) {
+					sendError(exchange, 200, Constants.RC_LOGIN_EXCEPTION, "Invalid username or password.");
+					return;
+				}
+				MteEnc encoder = restoreEncoder(conversation);
+				StrStatus encoded = encoder.encodeB64("Successfully logged in " + login.Username + ".");
+				if (encoded.status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_ENCODE_EXCEPTION, "Failed to encode login response. Status: "
+							+ MteBase.getStatusDescription(encoded.status));
+					return;
+				}
+				conversation.EncoderState = encoder.saveStateB64();
+				conversation.AccessToken = UUID.randomUUID().toString();
+				response.Data = encoded.str;
+				response.access_token = conversation.AccessToken;
+			}
+			sendJson(exchange, response);
+		} catch (Exception ex) {
+			sendError(exchange, 200, Constants.RC_LOGIN_EXCEPTION, "Exception during login: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * MKE decrypt a streamed file upload and send back an MKE
+	 * encrypted result message
+	 * 
+	 * @param requireLogin --> check and refresh the Bearer token
+	 */
+	private void handleFileUpload(HttpExchange exchange, boolean requireLogin) throws IOException {
+		try {
+			Conversation conversation = findConversation(exchange);
+			if (conversation == null) {
+				return;
+			}
+			String fileName = getFileName(exchange);
+			ResponseModel<byte[]> response = new ResponseModel<byte[]>();
+			synchronized (conversation) {
+				if (requireLogin) {
+					String auth = exchange.getRequestHeaders().getFirst(Constants.AuthHeader);
+					if (conversation.AccessToken == null || auth == null
+							|| !auth.equals("Bearer " + conversation.AccessToken)) {
+						sendError(exchange, 401, Constants.RC_VALIDATION_ERROR, "Unauthorized.");
+						return;
+					}
+				}
+
+				// ----------------------------------------
+				// Decrypt the body as it is streamed in
+				// ----------------------------------------
+				MteMkeDec mkeDecoder = new MteMkeDec();
+				MteStatus status = mkeDecoder.restoreStateB64(conversation.DecoderState);
+				if (status == MteStatus.mte_status_success) {
+					status = mkeDecoder.startDecrypt();
+				}
+				if (status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_STATE_RETRIEVAL, "Failed to start decode chunk. Status: "
+							+ MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
+					return;
+				}
+				long fileLength = 0;
+				byte[] buffer = new byte[1024];
+				try (InputStream in = exchange.getRequestBody(); OutputStream out = openUpload(fileName)) {
+					int bytesRead;
+					while ((bytesRead = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+						byte[] decodedChunk = mkeDecoder.decryptChunk(
+								bytesRead == buffer.length ? buffer : Arrays.copyOf(buffer, bytesRead));
+						if (decodedChunk == null) {
+							sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Failed to decode chunk.");
+							return;
+						}
+						out.write(decodedChunk);
+						fileLength += decodedChunk.length;
+					}
+					MteBase.ArrStatus finalDecodedChunk = mkeDecoder.finishDecrypt();
+					if (finalDecodedChunk.status != MteStatus.mte_status_success) {
+						sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION,
+								"Failed to finish decode chunk. Status: " + MteBase.getStatusName(finalDecodedChunk.status)
+										+ " / " + MteBase.getStatusDescription(finalDecodedChunk.status));
+						return;
+					}
+					if (finalDecodedChunk.arr != null) {
+						out.write(finalDecodedChunk.arr);
+						fileLength += finalDecodedChunk.arr.length;
+					}
+				}
+				conversation.DecoderState = mkeDecoder.saveStateB64();
+
+				// ------------------------------------
+				// Encrypt the result for the client
+				// ------------------------------------
+				MteMkeEnc mkeEncoder = new MteMkeEnc();
+				status = mkeEncoder.restoreStateB64(conversation.EncoderState);
+				if (status == MteStatus.mte_status_success) {
+					status = mkeEncoder.startEncrypt();
+				}
+				byte[] message = ("Successfully uploaded " + fileName + " (" + fileLength + " bytes).")
+						.getBytes(StandardCharsets.UTF_8);
+				if (status == MteStatus.mte_status_success) {
+					status = mkeEncoder.encryptChunk(message, 0, message.length);
+				}
+				if (status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_ENCODE_EXCEPTION, "Failed to encode response. Status: "
+							+ MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
+					return;
+				}
+				MteBase.ArrStatus finalEncodedChunk = mkeEncoder.finishEncrypt();
+				if (finalEncodedChunk.status != MteStatus.mte_status_success) {
+					sendError(exchange, 200, Constants.RC_MTE_ENCODE_EXCEPTION,
+							"Failed to finish encode chunk. Status: " + MteBase.getStatusName(finalEncodedChunk.status)
+									+ " / " + MteBase.getStatusDescription(finalEncodedChunk.status));
+					return;
+				}
+				conversation.EncoderState = mkeEncoder.saveStateB64();
+				byte[] finalChunk = finalEncodedChunk.arr == null ? new byte[0] : finalEncodedChunk.arr;
+				response.Data = new byte[message.length + finalChunk.length];
+				System.arraycopy(message, 0, response.Data, 0, message.length);
+				System.arraycopy(finalChunk, 0, response.Data, message.length, finalChunk.length);
+
+				// -----------------------------
+				// Hand out a fresh access token
+				// -----------------------------
+				if (requireLogin) {
+					conversation.AccessToken = UUID.randomUUID().toString();
+					response.access_token = conversation.AccessToken;
+				}
+			}
+			sendJson(exchange, response);
+		} catch (Exception ex) {
+			sendError(exchange, 200, Constants.RC_MTE_DECODE_EXCEPTION, "Exception during upload: " + ex.getMessage());
+		}
+	}
+
+	// ---------------------------------------------------------------
+	// Look up the conversation named by the client id header. When
+	// the server has no state the client is told to re-handshake.
+	// ---------------------------------------------------------------
+	private Conversation findConversation(HttpExchange exchange) throws IOException {
+		String clientId = exchange.getRequestHeaders().getFirst(Constants.ClientIdHeader);
+		Conversation conversation = clientId == null ? null : conversations.get(clientId);
+		if (conversation == null) {
+			sendError(exchange, 200, Constants.RC_MTE_STATE_NOT_FOUND, "MTE state not found, please handshake.");
+		}
+		return conversation;
+	}
+
+	private static MteEnc restoreEncoder(Conversation conversation) throws Exception {
+		MteEnc encoder = new MteEnc();
+		MteStatus status = encoder.restoreStateB64(conversation.EncoderState);
+		if (status != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the Encoder mte state: " + MteBase.getStatusDescription(status));
+		}
+		return encoder;
+	}
+
+	private static MteDec restoreDecoder(Conversation conversation) throws Exception {
+		MteDec decoder = new MteDec();
+		MteStatus status = decoder.restoreStateB64(conversation.DecoderState);
+		if (status != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the Decoder mte state: " + MteBase.getStatusDescription(status));
+		}
+		return decoder;
+	}
+
+	// -------------------------------------------------------
+	// "?name=file.txt" from the upload URL, only the last
+	// path element is kept so uploads stay in the directory
+	// -------------------------------------------------------
+	private static String getFileName(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith("name=") && parameter.length() > "name=".length()) {
+					Path name = Paths.get(parameter.substring("name=".length())).getFileName();
+					if (name != null) {
+						return name.toString();
+					}
+				}
+			}
+		}
+		return "upload.bin";
+	}
+
+	private static OutputStream openUpload(String fileName) throws IOException {
+		if (Constants.UploadDirectory == null || Constants.UploadDirectory.isEmpty()) {
+			return OutputStream.nullOutputStream();
+		}
+		Path directory = Files.createDirectories(Paths.get(Constants.UploadDirectory));
+		return Files.newOutputStream(directory.resolve(fileName));
+	}
+
+	private static EclypsesECDH.Mode parseMode(String keyAgreement) {
+		if (keyAgreement == null || keyAgreement.isEmpty()) {
+			return EclypsesECDH.Mode.P256;
+		}
+		try {
+			return EclypsesECDH.Mode.valueOf(keyAgreement);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int httpStatus, String resultCode, String message)
+			throws IOException {
+		ResponseModel<Object> errorResponse = new ResponseModel<Object>();
+		errorResponse.Success = false;
+		errorResponse.Message = message;
+		errorResponse.ResultCode = resultCode;
+		errorResponse.ExceptionUid = UUID.randomUUID().toString();
+		send(exchange, httpStatus, gson.toJson(errorResponse));
+	}
+
+	private static void sendJson(HttpExchange exchange, Object response) throws IOException {
+		send(exchange, 200, gson.toJson(response));
+	}
+
+	private static void sendBinary(HttpExchange exchange, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", Constants.BinaryContentType);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int httpStatus, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", Constants.JsonContentType);
+		exchange.sendResponseHeaders(httpStatus, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package localServer.Models;
+
+public class Constants {
+	
+    //----------------------
+    // MTE Client ID header
+    //----------------------
+    public static String ClientIdHeader = "x-client-id";
+    public static String AuthHeader = "Authorization";
+    public static String JsonContentType = "application/json";
+    public static String BinaryContentType = "application/octet-stream";
+    
+    //----------------------------------------------------------
+    // Port to listen on when none is given, 0 picks a free port
+    //----------------------------------------------------------
+    public static int DefaultPort = 8080;
+    
+    //-----------------------------------------------
+    // Request handler threads, the server is mostly
+    // CPU bound on MTE and ECDH work
+    //-----------------------------------------------
+    public static int ServerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    
+    //------------------------------------------------------------
+    // Pending connection queue, large enough for thousands of
+    // clients connecting at once without being reset
+    //------------------------------------------------------------
+    public static int ServerBacklog = 4096;
+    
+    //-----------------------------------------------------------
+    // Most messages accepted in one multi-client batch envelope
+    //-----------------------------------------------------------
+    public static int MaxBatchMessages = 1024;
+    
+    //-----------------------------------------------------------
+    // Directory uploaded files are decoded to, empty discards
+    // the decoded contents (useful when benchmarking uploads)
+    //-----------------------------------------------------------
+    public static String UploadDirectory = "";
+    
+    //---------------------------------------
+    // Demo login accepted by "/api/login"
+    //---------------------------------------
+    public static String LoginUsername = "email@eclypses.com";
+    public static String LoginPassword = "P@ssw0rd!";
+    
+    //---------------
+    // RestApi Routes
+    //---------------
+    public static String HandshakeRoute = "/api/handshake";
+    public static String MultiClientRoute = "/api/multiclient";
+    public static String MultiClientBatchRoute = "/api/multiclient/batch";
+    public static String LoginRoute = "/api/login";
+    public static String FileUploadRoute = "/FileUpload/mte";
+    public static String FileUploadLoginRoute = "/FileUploadLogin/mte";
+    
+    //-------------------
+    // result codes
+    //-------------------
+    public static String STR_SUCCESS = "SUCCESS";
+    public static String RC_SUCCESS = "000";
+    public static String RC_VALIDATION_ERROR = "100";
+    public static String RC_MTE_ENCODE_EXCEPTION = "104";
+    public static String RC_MTE_DECODE_EXCEPTION = "112";
+    public static String RC_MTE_STATE_CREATION = "114";
+    public static String RC_MTE_STATE_RETRIEVAL = "115";
+    public static String RC_MTE_STATE_SAVE = "116";
+    public static String RC_MTE_STATE_NOT_FOUND = "117";
+    public static String RC_HTTP_ERROR = "200";
+    public static String RC_HTTP_EXCEPTION = "201";
+    public static String RC_HANDSHAKE_EXCEPTION = "302";
+    public static String RC_LOGIN_EXCEPTION = "303";
+
+}
@@ -0,0 +1,70 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package localServer.Models;
+
+import com.google.gson.annotations.SerializedName;
+
+public class ResponseModel<T> {
+	  @SerializedName(value="Data")
+	  public T Data;
+	  public String Message;
+	  public Boolean Success;
+	  public String ResultCode;
+	  public String ExceptionUid;
+	  public String access_token;
+	  
+	  public ResponseModel(T data)
+	  {
+	    Data = data;
+	    this.Message = "Success";
+	    this.ResultCode = "000";
+	    this.Success = true;
+	    this.ExceptionUid = "";
+	    this.access_token = "";
+	  }
+
+	  public ResponseModel()
+	  {
+	    this.Message = "Success";
+	    this.ResultCode = "000";
+	    this.Success = true;
+	    this.ExceptionUid = "";
+	    this.access_token = "";
+	    
+	  }
+
+	  
+	  public <M> ResponseModel<M> ReturnDataWithResponseModel(ResponseModel<T> inResponse, M data){
+		    ResponseModel<M> response = new ResponseModel<M>(data);
+		    response.Message = inResponse.Message;
+		    response.ResultCode = inResponse.ResultCode;
+		    response.Success = inResponse.Success;
+		    response.access_token = inResponse.access_token;
+		    response.ExceptionUid = inResponse.ExceptionUid;
+		    return response;
+	  } 
+	}
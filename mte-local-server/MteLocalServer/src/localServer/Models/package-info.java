@@ -0,0 +1 @@
+package localServer.Models;
\ No newline at end of file
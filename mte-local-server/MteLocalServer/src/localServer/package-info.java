@@ -0,0 +1 @@
+package localServer;
\ No newline at end of file
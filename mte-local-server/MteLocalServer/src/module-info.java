@@ -0,0 +1,7 @@
+module MteLocalServer {
+	requires com.google.gson;
+	requires eclypses.ecdh;
+	requires jdk.httpserver;
+	
+	exports localServer.Models to com.google.gson;
+}
@@ -1,7 +1,9 @@
 module MultiClientConsole {
 	requires ehcache;
 	requires com.google.gson;
+	requires java.net.http;
 	requires jdk.unsupported;
+	requires jdk.management;
 	
 	exports multiClient.Models to com.google.gson;
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.nio.ByteBuffer;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+//------------------------------------------------------------------
+// Stores byte[] cache values as their raw bytes. Without this the
+// off-heap and disk tiers fall back to Java serialization, which
+// adds an object stream header and a copy to every state.
+//------------------------------------------------------------------
+public class ByteArraySerializer implements Serializer<byte[]> {
+
+	public ByteArraySerializer() {
+	}
+
+	//--------------------------------------------------------
+	// Ehcache creates serializers by class with this signature
+	//--------------------------------------------------------
+	public ByteArraySerializer(ClassLoader classLoader) {
+	}
+
+	/**
+	 * Wrap the value, values must not be changed once cached
+	 */
+	@Override
+	public ByteBuffer serialize(byte[] object) throws SerializerException {
+		return ByteBuffer.wrap(object);
+	}
+
+	@Override
+	public byte[] read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+		byte[] value = new byte[binary.remaining()];
+		binary.get(value);
+		return value;
+	}
+
+	@Override
+	public boolean equals(byte[] object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+		return ByteBuffer.wrap(object).equals(binary);
+	}
+}
@@ -26,21 +26,42 @@
 
 package multiClient;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.expiry.ExpiryPolicy;
 
 import multiClient.Models.Constants;
 
-public class CacheHelper {
+public class CacheHelper implements MteStateStore {
+	
+	private Cache<String, byte[]> _mteClientState;
+	private CacheManager _cacheManager;
 	
-	private static Cache<String, String> _mteClientState;
+	//------------------------------------------------------------
+	// Ehcache compares byte[] values by reference, so
+	// CompareAndSet checks the contents under a striped lock.
+	// Every write takes the key's stripe too, otherwise a Store
+	// could land between a CompareAndSet's check and its put.
+	//------------------------------------------------------------
+	private final Object[] _casLocks = new Object[64];
 	
 	public CacheHelper() {
+		for (int i = 0; i < _casLocks.length; i++) {
+			_casLocks[i] = new Object();
+		}
 		
 		//----------------------------
 		// Create cache expire policy
@@ -48,26 +69,38 @@ public class CacheHelper {
 		java.time.Duration duration = java.time.Duration.ofMinutes(Constants.ExpireMinutes);
 		ExpiryPolicy<Object, Object> expiryPolicy = ExpiryPolicyBuilder.timeToLiveExpiration(duration);
 		
+		//---------------------------------------------------------
+		// Heap holds the hot conversations, the rest spill to
+		// off-heap and disk so they are not evicted or collected
+		//---------------------------------------------------------
+		ResourcePoolsBuilder resourcePools = ResourcePoolsBuilder.newResourcePoolsBuilder()
+				.heap(Constants.CacheHeapMB, MemoryUnit.MB);
+		if (Constants.CacheOffHeapMB > 0) {
+			resourcePools = resourcePools.offheap(Constants.CacheOffHeapMB, MemoryUnit.MB);
+		}
+		if (Constants.CacheDiskMB > 0) {
+			resourcePools = resourcePools.disk(Constants.CacheDiskMB, MemoryUnit.MB, Constants.CacheDiskPersistent);
+		}
+		
 		//----------------------
 		// Create cache manager
 		//----------------------
-		CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
-		          .withCache("preConfigured",
-		               CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class,
-		                                              ResourcePoolsBuilder.heap(100))
-		               .withExpiry(expiryPolicy)
-		               .build())
-		          .build(true);
+		if (Constants.CacheDiskMB > 0) {
+			_cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+					.with(CacheManagerBuilder.persistence(new File(Constants.CacheDirectory)))
+					.build(true);
+		} else {
+			_cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true);
+		}
 
 		//--------------------------------------------
 		// Finally create mteClientState cache object
 		//--------------------------------------------
-		Cache<String, String> preConfigured
-		          = cacheManager.getCache("preConfigured", String.class, String.class);
-
-		_mteClientState = cacheManager.createCache("_mteClientCache",
-		               CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class,
-		                                        ResourcePoolsBuilder.heap(100)).build());
+		_mteClientState = _cacheManager.createCache("_mteClientCache",
+		               CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, byte[].class, resourcePools)
+		               .withExpiry(expiryPolicy)
+		               .withValueSerializer(new ByteArraySerializer())
+		               .build());
 	}
 	
 	/**
@@ -75,23 +108,34 @@ public class CacheHelper {
 	 * @param key
 	 * @param value
 	 */
-	public void Store(String key, String value) {
+	public void Store(String key, byte[] value) {
 		try {
 			//------------------------------
 		    // Put the value into the cache
 		    //------------------------------
-			_mteClientState.put(key, value);	
+			synchronized (casLock(key)) {
+				_mteClientState.put(key, value);
+			}
 		}catch (Exception ex) {
 			throw ex;
 		}
 	}
 	
+	/**
+	 * Store the Cached Value
+	 * @param key
+	 * @param value
+	 */
+	public void Store(String key, String value) {
+		Store(key, value.getBytes(StandardCharsets.UTF_8));
+	}
+	
 	/**
 	 * Get cached value
 	 * @param key
-	 * @return
+	 * @return value or null if not cached
 	 */
-	public String Get(String key) {
+	public byte[] GetBytes(String key) {
 		try {
 			//----------------------------------------------
 	        // return the value based on the key from cache
@@ -101,4 +145,78 @@ public class CacheHelper {
 			throw ex;
 		}
 	}
+	
+	/**
+	 * Get cached value
+	 * @param key
+	 * @return
+	 */
+	public String Get(String key) {
+		byte[] value = GetBytes(key);
+		return value == null ? null : new String(value, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Store the value if the cached one has the same contents as expected
+	 * @param key
+	 * @param expected --> current value, null means not cached
+	 * @param value
+	 * @return true if the value was stored
+	 */
+	public boolean CompareAndSet(String key, byte[] expected, byte[] value) {
+		synchronized (casLock(key)) {
+			if (!Arrays.equals(_mteClientState.get(key), expected)) {
+				return false;
+			}
+			_mteClientState.put(key, value);
+			return true;
+		}
+	}
+	
+	/**
+	 * Get cached values
+	 * @param keys
+	 * @return found values, missing keys are left out
+	 */
+	public Map<String, byte[]> GetAll(Collection<String> keys) {
+		Map<String, byte[]> found = new HashMap<String, byte[]>();
+		for (Map.Entry<String, byte[]> entry : _mteClientState.getAll(new HashSet<String>(keys)).entrySet()) {
+			if (entry.getValue() != null) {
+				found.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Store the Cached Values, each under its key's stripe
+	 * @param values
+	 */
+	public void StoreAll(Map<String, byte[]> values) {
+		for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+			Store(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Remove cached value
+	 * @param key
+	 */
+	public void Delete(String key) {
+		synchronized (casLock(key)) {
+			_mteClientState.remove(key);
+		}
+	}
+	
+	private Object casLock(String key) {
+		return _casLocks[Math.floorMod(key.hashCode(), _casLocks.length)];
+	}
+	
+	/**
+	 * Close the cache, this releases the off-heap memory and
+	 * flushes the disk tier
+	 */
+	public void Close() {
+		_cacheManager.close();
+	}
 }
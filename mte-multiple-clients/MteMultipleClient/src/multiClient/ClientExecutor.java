@@ -0,0 +1,117 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multiClient.Models.ExecutorMode;
+
+//-------------------------------------------------------------------------
+// Executor the client tasks fan out on. Each ContactServer call spends
+// nearly all of its time blocked on HTTP and sleep, so the common pool
+// caps concurrency at about the core count. The IO pool and virtual
+// threads let thousands of conversations be in flight at once.
+//
+// Virtual threads are looked up by reflection so the sample still
+// builds for Java 11 and runs with them on Java 21 or later.
+// -------------------------------------------------------------------------
+
+public class ClientExecutor {
+
+	private final ExecutorService executor;
+	private final ExecutorMode mode;
+
+	/**
+	 * Create executor for the given mode
+	 *
+	 * @param requested --> requested executor mode
+	 * @param ioThreads --> size of the IO pool
+	 */
+	public ClientExecutor(ExecutorMode requested, int ioThreads) {
+		ExecutorService virtualExecutor = requested == ExecutorMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+		if (virtualExecutor != null) {
+			executor = virtualExecutor;
+			mode = ExecutorMode.VIRTUAL;
+		} else if (requested == ExecutorMode.COMMON_POOL) {
+			executor = ForkJoinPool.commonPool();
+			mode = ExecutorMode.COMMON_POOL;
+		} else {
+			if (requested == ExecutorMode.VIRTUAL) {
+				System.out.println("Virtual threads need Java 21 or later, using IO_POOL.");
+			}
+			executor = Executors.newFixedThreadPool(ioThreads, daemonThreads("mte-client-"));
+			mode = ExecutorMode.IO_POOL;
+		}
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Mode actually in use, IO_POOL when VIRTUAL is not available
+	 */
+	public ExecutorMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Shut down the executor, the common pool is left running
+	 */
+	public void Close() {
+		if (mode != ExecutorMode.COMMON_POOL) {
+			executor.shutdown();
+		}
+	}
+
+	//--------------------------------------------------------------
+	// Executors.newVirtualThreadPerTaskExecutor() when the runtime
+	// has it, otherwise null
+	//--------------------------------------------------------------
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
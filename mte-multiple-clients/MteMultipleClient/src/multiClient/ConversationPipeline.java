@@ -0,0 +1,179 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//-------------------------------------------------------------------------
+// Keeps every conversation busy without round barriers. A conversation
+// has at most one message in flight and is queued for its next one as
+// soon as the previous reply is decoded, so a slow conversation only
+// holds up itself. maxInFlight caps the messages in flight across all
+// conversations, a conversation waits in the ready queue for a slot.
+//
+// A conversation whose send fails sits out the rest of the run instead
+// of retrying in a tight loop. If the executor refuses a message the run
+// stops sending and waits for the messages already in flight.
+// -------------------------------------------------------------------------
+
+public class ConversationPipeline {
+
+	/**
+	 * Sends a client's trip-th message and waits for its reply
+	 */
+	public interface TripSender {
+		void Send(int clientNum, int trip) throws Exception;
+	}
+
+	private static class Turn {
+		final int clientNum;
+		int trip = 1;
+
+		Turn(int clientNum) {
+			this.clientNum = clientNum;
+		}
+	}
+
+	private final TripSender sender;
+	private final int maxInFlight;
+	private final Semaphore slots;
+	private final Executor executor;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger peakInFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Create the pipeline
+	 *
+	 * @param sender      --> sends one message
+	 * @param maxInFlight --> messages in flight across all conversations
+	 * @param executor    --> runs the sender
+	 */
+	public ConversationPipeline(TripSender sender, int maxInFlight, Executor executor) {
+		this.sender = sender;
+		this.maxInFlight = maxInFlight;
+		this.slots = new Semaphore(maxInFlight);
+		this.executor = executor;
+	}
+
+	/**
+	 * Send messages on every client's conversation until the duration
+	 * ends, then wait for the messages still in flight
+	 *
+	 * @param clientNums     --> clients to run
+	 * @param durationMillis --> how long to keep sending
+	 * @return messages completed during this run
+	 * @throws InterruptedException
+	 */
+	public long Run(Collection<Integer> clientNums, long durationMillis) throws InterruptedException {
+		long completedBefore = completed.get();
+		LinkedBlockingQueue<Turn> ready = new LinkedBlockingQueue<Turn>();
+		for (int clientNum : clientNums) {
+			ready.add(new Turn(clientNum));
+		}
+		long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		while (true) {
+			long remaining = endNanos - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+			Turn turn = ready.poll(remaining, TimeUnit.NANOSECONDS);
+			if (turn == null) {
+				break;
+			}
+			if (!slots.tryAcquire(endNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				break;
+			}
+			peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			if (!submit(turn, ready)) {
+				break;
+			}
+		}
+
+		//-----------------------------------------
+		// Wait for the messages still in flight
+		//-----------------------------------------
+		slots.acquire(maxInFlight);
+		slots.release(maxInFlight);
+		return completed.get() - completedBefore;
+	}
+
+	//-----------------------------------------------------------
+	// Hand a turn that holds a slot to the executor. If the
+	// executor refuses it the slot is given back here, otherwise
+	// the final wait for every slot would never return.
+	//-----------------------------------------------------------
+	private boolean submit(Turn turn, LinkedBlockingQueue<Turn> ready) {
+		try {
+			executor.execute(() -> {
+				boolean sent = false;
+				try {
+					sender.Send(turn.clientNum, turn.trip);
+					completed.incrementAndGet();
+					sent = true;
+				} catch (Exception ex) {
+					failed.incrementAndGet();
+					System.out.println("Client " + turn.clientNum + " stopped for this run: " + ex.getMessage());
+				} finally {
+					inFlight.decrementAndGet();
+					slots.release();
+					if (sent) {
+						turn.trip++;
+						ready.add(turn);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException ex) {
+			failed.incrementAndGet();
+			inFlight.decrementAndGet();
+			slots.release();
+			System.out.println("Pipeline stopped, the executor refused client " + turn.clientNum + ": " + ex.getMessage());
+			return false;
+		}
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public int getPeakInFlight() {
+		return peakInFlight.get();
+	}
+}
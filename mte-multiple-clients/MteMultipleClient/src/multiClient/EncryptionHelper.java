@@ -26,24 +26,41 @@
 
 package multiClient;
 
+import java.util.Arrays;
 import java.util.Base64;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import com.eclypses.ecdh.EclypsesHKDF;
+
+import multiClient.Models.Constants;
+import multiClient.Models.StateSealMode;
+
 public class EncryptionHelper
 {
     /**
@@ -63,6 +80,56 @@ public class EncryptionHelper
     //------------------------------------------
     byte[] key, iv;
 
+    //----------------------------------------------------------------
+    // Derived state key per conversation, IV spec per IV string and
+    // one cipher per thread, so wrapping a state costs a single AES
+    // operation with no digest, hex or Cipher.getInstance work
+    //----------------------------------------------------------------
+    private static final ConcurrentHashMap<String, SecretKeySpec> _conversationKeys =
+            new ConcurrentHashMap<String, SecretKeySpec>();
+    private static final ConcurrentHashMap<String, IvParameterSpec> _ivSpecs =
+            new ConcurrentHashMap<String, IvParameterSpec>();
+    private static final ThreadLocal<Cipher> _threadCipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/CBC/PKCS5Padding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    //-------------------------------------------------------------
+    // AES/GCM state sealing: 12 byte random nonce, 16 byte tag,
+    // sealed layout is nonce | ciphertext | tag
+    //-------------------------------------------------------------
+    public static final int GcmNonceLength = 12;
+    public static final int GcmTagLength = 16;
+    private static final ThreadLocal<Cipher> _threadGcmCipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> _threadRandom = ThreadLocal.withInitial(SecureRandom::new);
+
+    //-------------------------------------------------------------
+    // State keys are HKDF-SHA256 of a secret master key, salted
+    // with the session IV and bound to the conversation id. The
+    // master key is read from Constants.StateKeyFile, never from
+    // the state store, so a copy of the store alone opens nothing.
+    //-------------------------------------------------------------
+    public static final int MasterKeyLength = 32;
+    private static final byte[] StateKeyLabel = "MTE state key ".getBytes(StandardCharsets.UTF_8);
+    private static final SecretKeySpec HmacResetKey = new SecretKeySpec(new byte[32], "HmacSHA256");
+    private static volatile byte[] _masterKey;
+    private static final ThreadLocal<Mac> _threadHmac = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     public EncryptionHelper()  {
         try {
         	//----------------------------------------------------------------
@@ -165,6 +232,50 @@ public class EncryptionHelper
             IllegalBlockSizeException, BadPaddingException {
         String _out = "";// output string
 
+        // encryption
+        if (_mode.equals(EncryptMode.ENCRYPT)) {
+            // Potentially insecure random numbers on Android 4.3 and older.
+            // Read
+            // https://android-developers.blogspot.com/2013/08/some-securerandom-thoughts.html
+            // for more info.
+        	initCipher(_mode, _encryptionKey, _initVector);// Initialize this cipher instance
+            byte[] results = cx.doFinal(_inputText.getBytes("UTF-8")); // Finish
+            // multi-part
+            // transformation
+            // (encryption)
+            _out = Base64.getEncoder().encodeToString(results); // ciphertext
+            // output
+        }
+
+        //-------------
+        // de-cryption
+        //-------------
+        if (_mode.equals(EncryptMode.DECRYPT)) {
+        	initCipher(_mode, _encryptionKey, _initVector);// Initialize this ipher instance
+
+            byte[] decodedValue = Base64.getDecoder().decode(_inputText.getBytes());
+            byte[] decryptedVal = cx.doFinal(decodedValue); // Finish
+            // multi-part
+            // transformation
+            // (decryption)
+            _out = new String(decryptedVal);
+        }
+
+        //System.out.println(_out);
+        return _out; // return encrypted/decrypted string
+    }
+
+    /**
+     * Initialize the cipher with the key and IV for the given mode
+     * @param _mode
+     *            specify the mode encryption / decryption
+     * @param _encryptionKey
+     *            hex encoded encryption key
+     * @param _initVector
+     * 	      Initialization vector
+     */
+    private void initCipher(EncryptMode _mode, String _encryptionKey, String _initVector)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
         //------------------------------------------
         // Change so encryption works with c# --> 
         // use hash digest NOT first 32 bytes of hash
@@ -199,37 +310,7 @@ public class EncryptionHelper
         // initialization
         // vector.
 
-        // encryption
-        if (_mode.equals(EncryptMode.ENCRYPT)) {
-            // Potentially insecure random numbers on Android 4.3 and older.
-            // Read
-            // https://android-developers.blogspot.com/2013/08/some-securerandom-thoughts.html
-            // for more info.
-        	cx.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);// Initialize this cipher instance
-            byte[] results = cx.doFinal(_inputText.getBytes("UTF-8")); // Finish
-            // multi-part
-            // transformation
-            // (encryption)
-            _out = Base64.getEncoder().encodeToString(results); // ciphertext
-            // output
-        }
-
-        //-------------
-        // de-cryption
-        //-------------
-        if (_mode.equals(EncryptMode.DECRYPT)) {
-        	cx.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);// Initialize this ipher instance
-
-            byte[] decodedValue = Base64.getDecoder().decode(_inputText.getBytes());
-            byte[] decryptedVal = cx.doFinal(decodedValue); // Finish
-            // multi-part
-            // transformation
-            // (decryption)
-            _out = new String(decryptedVal);
-        }
-
-        //System.out.println(_out);
-        return _out; // return encrypted/decrypted string
+        cx.init(_mode.equals(EncryptMode.ENCRYPT) ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, keySpec, ivSpec);
     }
 
     /***
@@ -388,6 +469,317 @@ public class EncryptionHelper
         return returnValue;
     }
 
+    /***
+     * This function encrypts raw bytes without any Base64 or String
+     * conversion, used for binary MTE state
+     * @param _plainBytes
+     *            bytes to be encrypted
+     * @param _key
+     *            Encryption Key. You'll have to use the same key for de-cryption
+     * @param _iv
+     * 	    initialization Vector
+     * @return returns encrypted bytes, null on failure
+     */
+    public byte[] encrypt(byte[] _plainBytes, String _key, String _iv)
+    {
+        try {
+            initCipher(EncryptMode.ENCRYPT, _key, _iv);
+            return cx.doFinal(_plainBytes);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /***
+     * This function decrypts raw bytes produced by encrypt(byte[], ...)
+     * @param _encryptedBytes
+     *            bytes to be decrypted
+     * @param _key
+     *            Encryption Key used for encryption
+     * @param _iv
+     * 	    initialization Vector
+     * @return returns decrypted bytes, null on failure
+     */
+    public byte[] decrypt(byte[] _encryptedBytes, String _key, String _iv)
+    {
+        try {
+            initCipher(EncryptMode.DECRYPT, _key, _iv);
+            return cx.doFinal(_encryptedBytes);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /***
+     * This function encrypts an MTE state with AES/CBC, the cached
+     * key of the conversation and the session IV.
+     * Safe to call from any thread.
+     * @param _state
+     *            state bytes to be encrypted
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    initialization Vector
+     * @return returns encrypted bytes
+     * @throws GeneralSecurityException with the cause if encryption failed
+     */
+    public static byte[] encryptState(byte[] _state, String _conversation, String _iv) throws GeneralSecurityException
+    {
+        try {
+            Cipher cipher = _threadCipher.get();
+            cipher.init(Cipher.ENCRYPT_MODE, conversationKey(_conversation, _iv), ivSpec(_iv));
+            return cipher.doFinal(_state);
+        } catch (GeneralSecurityException e) {
+            throw new GeneralSecurityException("Cannot encrypt MTE state for " + _conversation + ": " + e.getMessage(), e);
+        }
+    }
+
+    /***
+     * This function decrypts an MTE state encrypted by encryptState.
+     * Safe to call from any thread.
+     * @param _encryptedState
+     *            bytes to be decrypted
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    initialization Vector
+     * @return returns decrypted bytes
+     * @throws GeneralSecurityException with the cause if decryption failed,
+     *            for example a wrong key or IV or a damaged state
+     */
+    public static byte[] decryptState(byte[] _encryptedState, String _conversation, String _iv) throws GeneralSecurityException
+    {
+        try {
+            Cipher cipher = _threadCipher.get();
+            cipher.init(Cipher.DECRYPT_MODE, conversationKey(_conversation, _iv), ivSpec(_iv));
+            return cipher.doFinal(_encryptedState);
+        } catch (GeneralSecurityException e) {
+            throw new GeneralSecurityException("Cannot decrypt MTE state for " + _conversation + ": " + e.getMessage(), e);
+        }
+    }
+
+    /***
+     * This function seals an MTE state for the cache with the cipher
+     * selected by Constants.StateSeal
+     * @param _state
+     *            state bytes to be sealed
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    session IV, salts the state key and is the CBC IV
+     * @return returns sealed bytes
+     * @throws GeneralSecurityException
+     */
+    public static byte[] sealState(byte[] _state, String _conversation, String _iv) throws GeneralSecurityException
+    {
+        if (Constants.StateSeal == StateSealMode.GCM) {
+            byte[] sealed = new byte[GcmNonceLength + _state.length + GcmTagLength];
+            sealState(ByteBuffer.wrap(_state), _conversation, _iv, ByteBuffer.wrap(sealed));
+            return sealed;
+        }
+        return encryptState(_state, _conversation, _iv);
+    }
+
+    /***
+     * This function opens an MTE state sealed by sealState
+     * @param _sealed
+     *            sealed bytes from the cache
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    session IV, salts the state key and is the CBC IV
+     * @return returns state bytes
+     * @throws GeneralSecurityException AEADBadTagException if a GCM state
+     *            was changed or belongs to another conversation
+     */
+    public static byte[] openState(byte[] _sealed, String _conversation, String _iv) throws GeneralSecurityException
+    {
+        if (Constants.StateSeal == StateSealMode.GCM) {
+            if (_sealed.length < GcmNonceLength + GcmTagLength) {
+                throw new GeneralSecurityException("Sealed MTE state is too short for " + _conversation);
+            }
+            byte[] state = new byte[_sealed.length - GcmNonceLength - GcmTagLength];
+            openState(ByteBuffer.wrap(_sealed), _conversation, _iv, ByteBuffer.wrap(state));
+            return state;
+        }
+        return decryptState(_sealed, _conversation, _iv);
+    }
+
+    /***
+     * This function seals the remaining bytes of _state into _sealed with
+     * AES/GCM, a fresh random nonce and the conversation id as AAD.
+     * Direct buffers are encrypted without copying to the heap.
+     * @param _state
+     *            state bytes, read up to its limit
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    session IV, salts the state key
+     * @param _sealed
+     *            output, needs GcmNonceLength + state + GcmTagLength bytes
+     * @return returns number of bytes written to _sealed
+     * @throws GeneralSecurityException
+     */
+    public static int sealState(ByteBuffer _state, String _conversation, String _iv, ByteBuffer _sealed) throws GeneralSecurityException
+    {
+        byte[] nonce = new byte[GcmNonceLength];
+        _threadRandom.get().nextBytes(nonce);
+        Cipher cipher = _threadGcmCipher.get();
+        cipher.init(Cipher.ENCRYPT_MODE, conversationKey(_conversation, _iv), new GCMParameterSpec(GcmTagLength * 8, nonce));
+        cipher.updateAAD(_conversation.getBytes(StandardCharsets.UTF_8));
+        _sealed.put(nonce);
+        return GcmNonceLength + cipher.doFinal(_state, _sealed);
+    }
+
+    /***
+     * This function opens a state sealed by sealState(ByteBuffer, ...)
+     * @param _sealed
+     *            sealed bytes, read up to its limit
+     * @param _conversation
+     *            conversation id the key is derived from
+     * @param _iv
+     * 	    session IV, salts the state key
+     * @param _state
+     *            output, needs sealed - GcmNonceLength - GcmTagLength bytes
+     * @return returns number of bytes written to _state
+     * @throws GeneralSecurityException AEADBadTagException if the state
+     *            was changed or belongs to another conversation
+     */
+    public static int openState(ByteBuffer _sealed, String _conversation, String _iv, ByteBuffer _state) throws GeneralSecurityException
+    {
+        byte[] nonce = new byte[GcmNonceLength];
+        _sealed.get(nonce);
+        Cipher cipher = _threadGcmCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE, conversationKey(_conversation, _iv), new GCMParameterSpec(GcmTagLength * 8, nonce));
+        cipher.updateAAD(_conversation.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(_sealed, _state);
+    }
+
+    /**
+     * Get the cached state key for a conversation:
+     * HKDF-SHA256(master key, salt = session IV,
+     * info = "MTE state key " + conversation id)
+     * @param _conversation
+     *            conversation id
+     * @param _iv
+     *            session IV
+     * @return AES key
+     */
+    private static SecretKeySpec conversationKey(String _conversation, String _iv) throws GeneralSecurityException
+    {
+        String cacheKey = _iv + '|' + _conversation;
+        SecretKeySpec keySpec = _conversationKeys.get(cacheKey);
+        if (keySpec == null) {
+            byte[] conversation = _conversation.getBytes(StandardCharsets.UTF_8);
+            byte[] info = Arrays.copyOf(StateKeyLabel, StateKeyLabel.length + conversation.length);
+            System.arraycopy(conversation, 0, info, StateKeyLabel.length, conversation.length);
+            Mac hmac = _threadHmac.get();
+            byte[] prk = null;
+            byte[] okm = null;
+            try {
+                prk = EclypsesHKDF.extract(hmac, _iv.getBytes(StandardCharsets.UTF_8), masterKey());
+                okm = EclypsesHKDF.expand(hmac, prk, info, 32);
+                keySpec = new SecretKeySpec(okm, "AES");
+            } finally {
+                if (prk != null) {
+                    Arrays.fill(prk, (byte) 0);
+                }
+                if (okm != null) {
+                    Arrays.fill(okm, (byte) 0);
+                }
+                hmac.init(HmacResetKey);
+            }
+            //-------------------------------------------------
+            // Keep the cache bounded, dropping any one entry
+            // is fine since a miss only re-derives the key
+            //-------------------------------------------------
+            if (_conversationKeys.size() >= Constants.StateKeyCacheSize) {
+                for (String oldest : _conversationKeys.keySet()) {
+                    _conversationKeys.remove(oldest);
+                    break;
+                }
+            }
+            _conversationKeys.put(cacheKey, keySpec);
+        }
+        return keySpec;
+    }
+
+    /**
+     * Get the master key, reading Constants.StateKeyFile once
+     * @return master key
+     * @throws GeneralSecurityException if the key file can not be used
+     */
+    private static byte[] masterKey() throws GeneralSecurityException
+    {
+        byte[] key = _masterKey;
+        if (key == null) {
+            synchronized (EncryptionHelper.class) {
+                key = _masterKey;
+                if (key == null) {
+                    key = loadMasterKey(Paths.get(Constants.StateKeyFile));
+                    _masterKey = key;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Read the master key file, creating it with a random key readable
+     * only by the owner if it does not exist yet
+     * @param _file
+     *            key file
+     * @return master key
+     * @throws GeneralSecurityException if the file can not be read or
+     *            does not hold MasterKeyLength bytes
+     */
+    static byte[] loadMasterKey(Path _file) throws GeneralSecurityException
+    {
+        try {
+            if (!Files.exists(_file)) {
+                byte[] key = new byte[MasterKeyLength];
+                _threadRandom.get().nextBytes(key);
+                try {
+                    if (_file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                        Files.createFile(_file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                    } else {
+                        Files.createFile(_file);
+                    }
+                    Files.write(_file, key);
+                    return key;
+                } catch (FileAlreadyExistsException e) {
+                    //------------------------------------------
+                    // Another process created it first, use it
+                    //------------------------------------------
+                    Arrays.fill(key, (byte) 0);
+                }
+            }
+            byte[] key = Files.readAllBytes(_file);
+            if (key.length != MasterKeyLength) {
+                throw new GeneralSecurityException("State key file " + _file + " must hold " + MasterKeyLength + " bytes.");
+            }
+            return key;
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Cannot use state key file " + _file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the cached IV spec, the first 16 bytes of the IV string
+     * @param _iv
+     *            initialization Vector
+     * @return IV spec
+     */
+    private static IvParameterSpec ivSpec(String _iv)
+    {
+        IvParameterSpec spec = _ivSpecs.get(_iv);
+        if (spec == null) {
+            spec = new IvParameterSpec(Arrays.copyOf(_iv.getBytes(), 16));
+            _ivSpecs.put(_iv, spec);
+        }
+        return spec;
+    }
+
     /**
      * this function generates random string for given length
      * @param length
@@ -0,0 +1,116 @@
+package multiClient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//-------------------------------------------------------------------------
+// Lock free latency histogram in the style of HdrHistogram.
+// Values are kept in log-linear buckets: every power of two is split
+// into 128 linear sub-buckets, so any recorded value is reported with
+// less than 1% error while the whole long range fits in ~7k counters.
+//
+// The same class is in diffie-hellman-handshake/src/handshake/LatencyHistogram.java.
+// Every sample is a standalone project with no shared library, so the
+// two copies are kept identical apart from the package; change both.
+// -------------------------------------------------------------------------
+
+class LatencyHistogram {
+
+	private static final int SubBucketBits = 7;
+	private static final int SubBucketCount = 1 << SubBucketBits;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SubBucketBits) * SubBucketCount);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Record one value, negative values are ignored
+	 *
+	 * @param value --> value to record (nanoseconds)
+	 */
+	void record(long value) {
+		if (value < 0) {
+			return;
+		}
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		minValue.accumulateAndGet(value, Math::min);
+		maxValue.accumulateAndGet(value, Math::max);
+	}
+
+	long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Value at or below which the given percentage of values fall
+	 *
+	 * @param percentile --> 0 to 100
+	 * @return highest value equivalent to the bucket reached
+	 */
+	long getValueAtPercentile(double percentile) {
+		long total = totalCount.get();
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), maxValue.get());
+			}
+		}
+		return maxValue.get();
+	}
+
+	/**
+	 * Summary with values converted from nanoseconds to
+	 * microseconds, ready to be written as JSON
+	 */
+	Map<String, Object> toMicrosSummary() {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		long count = totalCount.get();
+		summary.put("count", count);
+		summary.put("min", count == 0 ? 0 : toMicros(minValue.get()));
+		summary.put("mean", count == 0 ? 0 : toMicros(totalValue.get() / count));
+		summary.put("p50", toMicros(getValueAtPercentile(50)));
+		summary.put("p90", toMicros(getValueAtPercentile(90)));
+		summary.put("p99", toMicros(getValueAtPercentile(99)));
+		summary.put("p999", toMicros(getValueAtPercentile(99.9)));
+		summary.put("max", toMicros(maxValue.get()));
+		return summary;
+	}
+
+	private static double toMicros(long nanos) {
+		return Math.round(nanos / 100.0) / 10.0;
+	}
+
+	//-----------------------------------------------------------------
+	// Values below 128 map one to one. Above that the top 8 bits of
+	// the value select the sub-bucket inside its power of two.
+	//-----------------------------------------------------------------
+	private static int indexOf(long value) {
+		if (value < SubBucketCount) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SubBucketBits));
+		return (exponent - SubBucketBits + 1) * SubBucketCount + (subBucket - SubBucketCount);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < SubBucketCount) {
+			return index;
+		}
+		int bucket = index / SubBucketCount;
+		long subBucket = (index % SubBucketCount) + SubBucketCount;
+		int shift = bucket - 1;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
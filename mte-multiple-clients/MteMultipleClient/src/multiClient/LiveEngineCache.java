@@ -0,0 +1,603 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.eclypses.mte.*;
+
+import multiClient.Models.Constants;
+
+//-------------------------------------------------------------------------
+// LRU cache of live, instantiated Encoder/Decoder pairs keyed by
+// conversation id. Hot conversations skip restoreState/saveState on
+// every message; states are written to the MteStateStore only when a
+// pair is evicted, on the periodic write-behind flush, and on Close.
+// With write-through every Release also saves a changed pair, so the
+// store never lags the conversation by a message. Both sealed states
+// of a conversation are kept in one pair record under
+// Constants.PairPrefix, so they are always read and replaced together.
+// Once the stored record is known it is replaced with one
+// CompareAndSet, so a pair whose states were changed by another client
+// process is dropped rather than overwriting them.
+//
+// Acquire hands the pair back locked and Release unlocks it. Eviction
+// and flush take the same lock, so the state they save is never captured
+// in the middle of a message. A pair evicted while in use is saved and
+// uninstantiated by Release.
+//
+// A conversation that is not live is restored under its stripe of
+// StripedLocks, so concurrent misses restore it once, and Put stores a
+// handshake's new states under the same stripe so they are never half
+// read. A thread holding a stripe never waits for a pair lock, a thread
+// holding a pair lock may take a stripe. Waits on both are counted in
+// LockContention.
+// -------------------------------------------------------------------------
+
+public class LiveEngineCache {
+
+	/**
+	 * Live Encoder and Decoder for one conversation
+	 */
+	public static class ConversationEngines {
+		public final MteEnc Encoder;
+		public final MteDec Decoder;
+		private final String conversation;
+		private final ReentrantLock lock = new ReentrantLock();
+		private boolean dirty;
+		private boolean retired;
+		private byte[] storedPair;
+
+		ConversationEngines(String conversation, MteEnc encoder, MteDec decoder) {
+			this.conversation = conversation;
+			Encoder = encoder;
+			Decoder = decoder;
+		}
+
+		public String getConversation() {
+			return conversation;
+		}
+
+		/**
+		 * Flag the state as changed so the next flush saves it
+		 */
+		public void MarkDirty() {
+			dirty = true;
+		}
+	}
+
+	private final MteStateStore store;
+	private final String encIV;
+	private final int capacity;
+	private final boolean writeThrough;
+	private final LinkedHashMap<String, ConversationEngines> live;
+
+	//------------------------------------------------------------
+	// Evicted pairs waiting to be saved. A lookup that lands here
+	// takes the pair back instead of restoring an older state.
+	//------------------------------------------------------------
+	private final HashMap<String, ConversationEngines> evicted = new HashMap<String, ConversationEngines>();
+	private final Thread flushThread;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile TripPhases phases;
+	private final StripedLocks conversationLocks;
+	private final LockContention pairContention = new LockContention();
+
+	/**
+	 * Create live engine cache
+	 *
+	 * @param store        --> store holding the sealed states
+	 * @param encIV        --> IV the states are encrypted with
+	 * @param capacity     --> maximum number of live pairs
+	 * @param flushSeconds --> write-behind interval, 0 turns it off
+	 * @param writeThrough --> save a changed pair on every Release
+	 * @param lockStripes  --> number of conversation lock stripes
+	 */
+	public LiveEngineCache(MteStateStore store, String encIV, int capacity, int flushSeconds, boolean writeThrough,
+			int lockStripes) {
+		this.store = store;
+		this.conversationLocks = new StripedLocks(lockStripes);
+		this.encIV = encIV;
+		this.capacity = capacity;
+		this.writeThrough = writeThrough;
+		this.live = new LinkedHashMap<String, ConversationEngines>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ConversationEngines> eldest) {
+				if (size() > LiveEngineCache.this.capacity) {
+					evicted.put(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		if (flushSeconds > 0) {
+			flushThread = new Thread(() -> flushLoop(flushSeconds * 1000L), "LiveEngineCache-flush");
+			flushThread.setDaemon(true);
+			flushThread.start();
+		} else {
+			flushThread = null;
+		}
+	}
+
+	/**
+	 * Get and lock the live pair for a conversation, restoring it
+	 * from the state cache when it is not live. Every pair returned
+	 * must be given back with Release.
+	 *
+	 * @param conversation --> conversation id
+	 * @return locked live pair or null if no state is stored
+	 */
+	public ConversationEngines Acquire(String conversation) throws Exception {
+		while (true) {
+			ConversationEngines engines = takeLive(conversation);
+			if (engines != null) {
+				hits.incrementAndGet();
+			} else {
+				//------------------------------------------------
+				// Not live, restore from the state cache under the
+				// conversation's stripe so it is restored only once
+				//------------------------------------------------
+				ReentrantLock stripe = conversationLocks.Lock(conversation);
+				try {
+					engines = takeLive(conversation);
+					if (engines != null) {
+						hits.incrementAndGet();
+					} else {
+						misses.incrementAndGet();
+						engines = restore(conversation);
+						if (engines == null) {
+							return null;
+						}
+						synchronized (this) {
+							live.put(conversation, engines);
+						}
+					}
+				} finally {
+					stripe.unlock();
+				}
+			}
+
+			//-----------------------------------------------------
+			// The pair may have been evicted and saved before we
+			// got the lock, in that case look it up again
+			//-----------------------------------------------------
+			pairContention.Lock(engines.lock);
+			if (!engines.retired) {
+				saveEvicted(false);
+				return engines;
+			}
+			engines.lock.unlock();
+		}
+	}
+
+	/**
+	 * Unlock a pair returned by Acquire, saving it first if it was
+	 * evicted while in use or write-through is on
+	 *
+	 * @param engines --> pair returned by Acquire
+	 */
+	public void Release(ConversationEngines engines) {
+		try {
+			if (!engines.retired && isEvicted(engines)) {
+				saveAndRetire(engines);
+			} else if (writeThrough && !engines.retired && engines.dirty) {
+				persist(engines);
+			}
+		} finally {
+			engines.lock.unlock();
+		}
+		saveEvicted(false);
+	}
+
+	/**
+	 * Store the sealed states of a freshly created pair and make it
+	 * live, replacing any current one. The pair starts dirty so a
+	 * late save of the pair it replaces can not leave an older state
+	 * behind in the state cache.
+	 *
+	 * @param conversation   --> conversation id
+	 * @param encoder        --> instantiated Encoder
+	 * @param decoder        --> instantiated Decoder
+	 * @param sealedEncState --> sealed Encoder state
+	 * @param sealedDecState --> sealed Decoder state
+	 */
+	public void Put(String conversation, MteEnc encoder, MteDec decoder, byte[] sealedEncState, byte[] sealedDecState) {
+		ConversationEngines engines = new ConversationEngines(conversation, encoder, decoder);
+		engines.dirty = true;
+		byte[] pair = packPair(sealedEncState, sealedDecState);
+		ConversationEngines replaced;
+		ReentrantLock stripe = conversationLocks.Lock(conversation);
+		try {
+			store.Store(Constants.PairPrefix + conversation, pair);
+			engines.storedPair = pair;
+			synchronized (this) {
+				replaced = live.put(conversation, engines);
+				if (replaced == null) {
+					replaced = evicted.remove(conversation);
+				}
+			}
+		} finally {
+			stripe.unlock();
+		}
+		if (replaced != null) {
+			retire(replaced);
+		}
+		saveEvicted(false);
+	}
+
+	/**
+	 * Take a conversation out of the cache without saving it and
+	 * delete its stored states. Both happen under the conversation's
+	 * stripe, so a late Acquire can not restore it in between. If the
+	 * pair is in use this waits until its holder releases it.
+	 *
+	 * @param conversation --> conversation id
+	 */
+	public void Remove(String conversation) {
+		ConversationEngines removed;
+		ReentrantLock stripe = conversationLocks.Lock(conversation);
+		try {
+			synchronized (this) {
+				removed = live.remove(conversation);
+				if (removed == null) {
+					removed = evicted.remove(conversation);
+				}
+			}
+			store.Delete(Constants.PairPrefix + conversation);
+		} finally {
+			stripe.unlock();
+		}
+		if (removed != null) {
+			retire(removed);
+		}
+	}
+
+	/**
+	 * Save every changed live pair to the state cache
+	 */
+	public void Flush() {
+		List<ConversationEngines> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<ConversationEngines>(live.values());
+		}
+		for (ConversationEngines engines : snapshot) {
+			engines.lock.lock();
+			try {
+				if (!engines.retired && engines.dirty) {
+					persist(engines);
+				}
+			} finally {
+				engines.lock.unlock();
+			}
+		}
+		saveEvicted(true);
+	}
+
+	/**
+	 * Stop the write-behind thread and save all live pairs
+	 */
+	public void Close() {
+		if (flushThread != null) {
+			flushThread.interrupt();
+		}
+		Flush();
+	}
+
+	/**
+	 * Time restore and persist phases into the given histograms
+	 *
+	 * @param phases --> trip phase histograms, null turns timing off
+	 */
+	public void setPhases(TripPhases phases) {
+		this.phases = phases;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Waits on the conversation stripes, taken on restore and when a
+	 * conversation's states are replaced
+	 */
+	public LockContention getConversationContention() {
+		return conversationLocks.getContention();
+	}
+
+	/**
+	 * Waits on live pairs, a trip finding its pair in use by another
+	 */
+	public LockContention getPairContention() {
+		return pairContention;
+	}
+
+	//----------------------------------------------------------------
+	// Live or evicted pair of a conversation, an evicted one is made
+	// live again before its state is saved
+	//----------------------------------------------------------------
+	private synchronized ConversationEngines takeLive(String conversation) {
+		ConversationEngines engines = live.get(conversation);
+		if (engines == null) {
+			engines = evicted.remove(conversation);
+			if (engines != null) {
+				live.put(conversation, engines);
+			}
+		}
+		return engines;
+	}
+
+	//----------------------------------------------------------------
+	// Save evicted pairs outside of the map lock. Unless wait is set
+	// pairs in use are skipped, Release or the next flush saves them,
+	// so two clients never wait on each other's pair.
+	//----------------------------------------------------------------
+	private void saveEvicted(boolean wait) {
+		List<ConversationEngines> pending;
+		synchronized (this) {
+			if (evicted.isEmpty()) {
+				return;
+			}
+			pending = new ArrayList<ConversationEngines>(evicted.values());
+		}
+		for (ConversationEngines engines : pending) {
+			if (engines.lock.isHeldByCurrentThread()) {
+				continue;
+			}
+			if (wait) {
+				engines.lock.lock();
+			} else if (!engines.lock.tryLock()) {
+				continue;
+			}
+			try {
+				if (!engines.retired && isEvicted(engines)) {
+					saveAndRetire(engines);
+				}
+			} finally {
+				engines.lock.unlock();
+			}
+		}
+	}
+
+	private synchronized boolean isEvicted(ConversationEngines engines) {
+		return evicted.get(engines.conversation) == engines;
+	}
+
+	//----------------------------------------------------------------
+	// Caller holds the pair lock. The pair leaves the evicted map only
+	// after its state is stored, so a lookup never restores an older
+	// state. A pair taken back by Acquire meanwhile stays live.
+	//----------------------------------------------------------------
+	private void saveAndRetire(ConversationEngines engines) {
+		if (engines.dirty) {
+			persist(engines);
+		}
+		boolean stillEvicted;
+		synchronized (this) {
+			stillEvicted = evicted.remove(engines.conversation, engines);
+		}
+		if (stillEvicted) {
+			retire(engines);
+		}
+	}
+
+	private void flushLoop(long intervalMillis) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(intervalMillis);
+				Flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Seal both states and store them as one pair record, caller
+	 * holds the pair lock. On failure the pair stays dirty so the
+	 * next flush tries again. If the stored record is no longer the
+	 * one this pair wrote or restored, the pair is stale and is
+	 * dropped.
+	 */
+	private void persist(ConversationEngines engines) {
+		TripPhases phases = this.phases;
+		long start = System.nanoTime();
+		byte[] encoderState = null;
+		byte[] decoderState = null;
+		try {
+			encoderState = engines.Encoder.saveState();
+			decoderState = engines.Decoder.saveState();
+			if (encoderState == null || decoderState == null) {
+				return;
+			}
+			long saved = System.nanoTime();
+			byte[] sealedEncState = EncryptionHelper.sealState(encoderState, engines.conversation, encIV);
+			byte[] sealedDecState = EncryptionHelper.sealState(decoderState, engines.conversation, encIV);
+			if (phases != null) {
+				phases.Save.record(saved - start);
+				phases.StateEncrypt.record(System.nanoTime() - saved);
+			}
+			String pairKey = Constants.PairPrefix + engines.conversation;
+			byte[] pair = packPair(sealedEncState, sealedDecState);
+			if (engines.storedPair == null) {
+				store.Store(pairKey, pair);
+			} else if (!store.CompareAndSet(pairKey, engines.storedPair, pair)) {
+				//------------------------------------------------------
+				// A conversation removed by Remove while its pair was
+				// being saved is dropped quietly
+				//------------------------------------------------------
+				if (store.GetBytes(pairKey) != null) {
+					System.out.println("MTE state for " + engines.conversation + " was changed elsewhere, dropping the live pair.");
+				}
+				drop(engines);
+				return;
+			}
+			engines.storedPair = pair;
+			engines.dirty = false;
+		} catch (GeneralSecurityException ex) {
+			System.out.println("Error sealing the MTE state for " + engines.conversation + ": " + ex.getMessage());
+		} finally {
+			//------------------------------------------------------
+			// Zero whichever plaintext state was saved, even when
+			// the other one failed
+			//------------------------------------------------------
+			if (encoderState != null) {
+				Arrays.fill(encoderState, (byte) 0);
+			}
+			if (decoderState != null) {
+				Arrays.fill(decoderState, (byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * Restore both states from the pair record in the state store
+	 *
+	 * @return restored pair or null if no record is stored
+	 */
+	private ConversationEngines restore(String conversation) throws Exception {
+		byte[] pair = store.GetBytes(Constants.PairPrefix + conversation);
+		byte[][] states = unpackPair(pair);
+		if (states == null) {
+			return null;
+		}
+		byte[] encryptedEncState = states[0];
+		byte[] encryptedDecState = states[1];
+		TripPhases phases = this.phases;
+		long start = System.nanoTime();
+		byte[] encoderState;
+		byte[] decoderState;
+		try {
+			encoderState = EncryptionHelper.openState(encryptedEncState, conversation, encIV);
+			decoderState = EncryptionHelper.openState(encryptedDecState, conversation, encIV);
+		} catch (GeneralSecurityException ex) {
+			throw new Exception("Cannot open the MTE state for " + conversation + ": " + ex.getMessage(), ex);
+		}
+
+		long opened = System.nanoTime();
+		MteEnc encoder = new MteEnc();
+		MteStatus encoderStatus = encoder.restoreState(encoderState);
+		Arrays.fill(encoderState, (byte) 0);
+		MteDec decoder = new MteDec();
+		MteStatus decoderStatus = decoder.restoreState(decoderState);
+		Arrays.fill(decoderState, (byte) 0);
+		if (phases != null) {
+			phases.StateDecrypt.record(opened - start);
+			phases.Restore.record(System.nanoTime() - opened);
+		}
+		if (encoderStatus != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the Encoder mte state for " + conversation + ": "
+					+ MteBase.getStatusDescription(encoderStatus));
+		}
+		if (decoderStatus != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the Decoder mte state for " + conversation + ": "
+					+ MteBase.getStatusDescription(decoderStatus));
+		}
+		ConversationEngines engines = new ConversationEngines(conversation, encoder, decoder);
+		engines.storedPair = pair;
+		return engines;
+	}
+
+	//-------------------------------------------------------------
+	// Pair record layout: 4 byte big-endian length of the sealed
+	// Encoder state, the sealed Encoder state, the sealed Decoder
+	// state
+	//-------------------------------------------------------------
+	static byte[] packPair(byte[] sealedEncState, byte[] sealedDecState) {
+		return ByteBuffer.allocate(4 + sealedEncState.length + sealedDecState.length)
+				.putInt(sealedEncState.length)
+				.put(sealedEncState)
+				.put(sealedDecState)
+				.array();
+	}
+
+	/**
+	 * Split a pair record from packPair
+	 *
+	 * @param pair --> stored record, may be null
+	 * @return sealed Encoder and Decoder state, null if there is no
+	 *         record or it is malformed
+	 */
+	static byte[][] unpackPair(byte[] pair) {
+		if (pair == null || pair.length < 4) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(pair);
+		int encoderLength = buffer.getInt();
+		if (encoderLength <= 0 || encoderLength >= buffer.remaining()) {
+			return null;
+		}
+		byte[] sealedEncState = new byte[encoderLength];
+		buffer.get(sealedEncState);
+		byte[] sealedDecState = new byte[buffer.remaining()];
+		buffer.get(sealedDecState);
+		return new byte[][] { sealedEncState, sealedDecState };
+	}
+
+	//-------------------------------------------------------------
+	// Take a stale pair out of the cache, caller holds the pair
+	// lock. The next Acquire restores the states that won.
+	//-------------------------------------------------------------
+	private void drop(ConversationEngines engines) {
+		synchronized (this) {
+			live.remove(engines.conversation, engines);
+			evicted.remove(engines.conversation, engines);
+		}
+		retire(engines);
+	}
+
+	//---------------------------------------------------------
+	// Uninstantiate a pair that is no longer live. Anyone who
+	// still holds a reference sees retired once they lock it.
+	//---------------------------------------------------------
+	private static void retire(ConversationEngines engines) {
+		engines.lock.lock();
+		try {
+			engines.retired = true;
+			engines.dirty = false;
+			engines.Encoder.uninstantiate();
+			engines.Decoder.uninstantiate();
+		} finally {
+			engines.lock.unlock();
+		}
+	}
+}
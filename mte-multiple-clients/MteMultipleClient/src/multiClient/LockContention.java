@@ -0,0 +1,99 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+//-------------------------------------------------------------------------
+// Counts how often a set of locks was taken, how often the taker had to
+// wait because another thread held it, and how long those waits were.
+// An uncontended lock costs one tryLock and no clock reads.
+// -------------------------------------------------------------------------
+
+public class LockContention {
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong contended = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Take the lock, counting the wait if another thread holds it
+	 *
+	 * @param lock --> lock to take
+	 */
+	public void Lock(ReentrantLock lock) {
+		acquired.incrementAndGet();
+		if (lock.tryLock()) {
+			return;
+		}
+		contended.incrementAndGet();
+		long start = System.nanoTime();
+		lock.lock();
+		long waited = System.nanoTime() - start;
+		waitNanos.addAndGet(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+	}
+
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	public long getContended() {
+		return contended.get();
+	}
+
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	/**
+	 * Counts for reports, wait times in microseconds
+	 *
+	 * @return count name to value
+	 */
+	public Map<String, Object> toSummary() {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("acquired", acquired.get());
+		summary.put("contended", contended.get());
+		summary.put("waitMicros", waitNanos.get() / 1000);
+		summary.put("maxWaitMicros", maxWaitNanos.get() / 1000);
+		return summary;
+	}
+
+	@Override
+	public String toString() {
+		return "acquired: " + acquired.get() + " contended: " + contended.get() + " wait: "
+				+ waitNanos.get() / 1_000_000 + " ms max wait: " + maxWaitNanos.get() / 1000 + " us";
+	}
+}
@@ -0,0 +1,431 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+//-------------------------------------------------------------------------
+// MTE state store in a memory-mapped file, so states survive a restart
+// and reads and writes are plain memory copies.
+//
+// The file is a header followed by buckets of SlotsPerBucket fixed-size
+// slots. A key hashes to one bucket and takes any free slot in it; each
+// bucket has its own lock. Slot layout:
+//
+//   used (1) | key length (2) | value length (4) | CRC32 (4) | sequence (8)
+//   | key | value
+//
+// A slot is never rewritten while it is used. A new value goes into a
+// free slot with the next sequence number, is marked used, and only then
+// is the old copy cleared. A crash at any point leaves the last good copy
+// readable; when both survive the higher sequence wins. The CRC covers
+// the sequence and the value, so a torn copy reads back as missing and
+// the older one is used, or that conversation re-handshakes if there is
+// none. A bucket keeps one slot free for this, so it holds at most
+// SlotsPerBucket - 1 keys.
+//
+// The header also keeps the session IV the states were sealed with, so
+// a restarted client can open them again (see GetSessionIV and Keys).
+// -------------------------------------------------------------------------
+
+public class MappedFileStateStore implements MteStateStore {
+
+	public static final int SlotsPerBucket = 8;
+	public static final int KeyBytes = 64;
+	private static final int HeaderBytes = 4096;
+	private static final int Magic = 0x4D544553; // "MTES"
+	private static final int Version = 2;
+	static final int SlotHeaderBytes = 19;
+	private static final int SessionIVOffset = 24;
+	private static final int SessionIVBytes = 128;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final int buckets;
+	private final int valueBytes;
+	private final int slotBytes;
+	private final Object[] locks;
+
+	/**
+	 * Open or create the mapped store
+	 *
+	 * @param file       --> file to map
+	 * @param buckets    --> number of buckets, a new file only
+	 * @param valueBytes --> largest value a slot holds, a new file only
+	 * @throws IOException if the file is not a state file of this
+	 *                     version or was written with other
+	 *                     SlotsPerBucket or KeyBytes
+	 */
+	public MappedFileStateStore(String file, int buckets, int valueBytes) throws IOException {
+		Path path = Paths.get(file);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			boolean isNew = channel.size() == 0;
+			if (!isNew) {
+				//-------------------------------------------
+				// Existing file, its own layout wins
+				//-------------------------------------------
+				ByteBuffer header = ByteBuffer.allocate(24);
+				channel.read(header, 0);
+				header.flip();
+				if (header.getInt() != Magic) {
+					throw new IOException(file + " is not an MTE state file.");
+				}
+				int fileVersion = header.getInt();
+				if (fileVersion != Version) {
+					throw new IOException(file + " is state file version " + fileVersion + ", this build reads version "
+							+ Version + ". Delete it to start with no saved states.");
+				}
+				buckets = header.getInt();
+				int fileSlotsPerBucket = header.getInt();
+				int fileKeyBytes = header.getInt();
+				valueBytes = header.getInt();
+				//-------------------------------------------
+				// Slot count and key size are compiled in,
+				// a file laid out with others can not be read
+				//-------------------------------------------
+				if (fileSlotsPerBucket != SlotsPerBucket || fileKeyBytes != KeyBytes) {
+					throw new IOException(file + " has " + fileSlotsPerBucket + " slots per bucket and " + fileKeyBytes
+							+ " byte keys, this build expects " + SlotsPerBucket + " and " + KeyBytes + ".");
+				}
+				if (buckets <= 0 || valueBytes <= 0) {
+					throw new IOException(file + " has a corrupt header.");
+				}
+			}
+			this.buckets = buckets;
+			this.valueBytes = valueBytes;
+			this.slotBytes = (SlotHeaderBytes + KeyBytes + valueBytes + 7) & ~7;
+			long size = HeaderBytes + (long) buckets * SlotsPerBucket * slotBytes;
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Mapped state file can not be larger than 2GB.");
+			}
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (isNew) {
+				map.putInt(0, Magic);
+				map.putInt(4, Version);
+				map.putInt(8, buckets);
+				map.putInt(12, SlotsPerBucket);
+				map.putInt(16, KeyBytes);
+				map.putInt(20, valueBytes);
+			}
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+		locks = new Object[buckets];
+		for (int i = 0; i < buckets; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@Override
+	public byte[] GetBytes(String key) {
+		byte[] keyBytes = keyBytes(key);
+		int bucket = bucketOf(keyBytes);
+		synchronized (locks[bucket]) {
+			int slot = findSlot(bucket, keyBytes);
+			return slot < 0 ? null : readValue(slot);
+		}
+	}
+
+	@Override
+	public void Store(String key, byte[] value) {
+		byte[] keyBytes = keyBytes(key);
+		checkValue(value);
+		int bucket = bucketOf(keyBytes);
+		synchronized (locks[bucket]) {
+			writeSlot(bucket, keyBytes, value);
+		}
+	}
+
+	@Override
+	public boolean CompareAndSet(String key, byte[] expected, byte[] value) {
+		byte[] keyBytes = keyBytes(key);
+		checkValue(value);
+		int bucket = bucketOf(keyBytes);
+		synchronized (locks[bucket]) {
+			int slot = findSlot(bucket, keyBytes);
+			byte[] current = slot < 0 ? null : readValue(slot);
+			if (!Arrays.equals(current, expected)) {
+				return false;
+			}
+			writeSlot(bucket, keyBytes, value);
+			return true;
+		}
+	}
+
+	@Override
+	public Map<String, byte[]> GetAll(Collection<String> keys) {
+		Map<String, byte[]> found = new HashMap<String, byte[]>();
+		for (String key : keys) {
+			byte[] value = GetBytes(key);
+			if (value != null) {
+				found.put(key, value);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public void StoreAll(Map<String, byte[]> values) {
+		for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+			Store(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void Delete(String key) {
+		byte[] keyBytes = keyBytes(key);
+		int bucket = bucketOf(keyBytes);
+		synchronized (locks[bucket]) {
+			clearOthers(bucket, keyBytes, -1);
+		}
+	}
+
+	/**
+	 * Session IV recorded in the header
+	 *
+	 * @return IV or null if none was recorded
+	 */
+	public String GetSessionIV() {
+		synchronized (map) {
+			int length = map.getShort(SessionIVOffset);
+			if (length <= 0 || length > SessionIVBytes) {
+				return null;
+			}
+			byte[] iv = new byte[length];
+			ByteBuffer view = map.duplicate();
+			view.position(SessionIVOffset + 2);
+			view.get(iv);
+			return new String(iv, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Record the session IV the states are sealed with
+	 *
+	 * @param iv --> session IV
+	 */
+	public void SetSessionIV(String iv) {
+		byte[] ivBytes = iv.getBytes(StandardCharsets.UTF_8);
+		if (ivBytes.length > SessionIVBytes) {
+			throw new IllegalArgumentException("Session IV is longer than " + SessionIVBytes + " bytes.");
+		}
+		synchronized (map) {
+			ByteBuffer view = map.duplicate();
+			view.position(SessionIVOffset + 2);
+			view.put(ivBytes);
+			map.putShort(SessionIVOffset, (short) ivBytes.length);
+		}
+	}
+
+	/**
+	 * Keys of every readable value, a torn slot is left out
+	 *
+	 * @return stored keys in slot order
+	 */
+	public List<String> Keys() {
+		List<String> keys = new ArrayList<String>();
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			synchronized (locks[bucket]) {
+				int first = bucket * SlotsPerBucket;
+				for (int slot = first; slot < first + SlotsPerBucket; slot++) {
+					int offset = slotOffset(slot);
+					int keyLength = map.getShort(offset + 1);
+					if (map.get(offset) == 0 || keyLength <= 0 || keyLength > KeyBytes) {
+						continue;
+					}
+					byte[] keyBytes = new byte[keyLength];
+					ByteBuffer view = map.duplicate();
+					view.position(offset + SlotHeaderBytes);
+					view.get(keyBytes);
+					//-----------------------------------------
+					// Only the copy a read would return, so a
+					// key left twice by a crash is listed once
+					//-----------------------------------------
+					if (findSlot(bucket, keyBytes) == slot) {
+						keys.add(new String(keyBytes, StandardCharsets.UTF_8));
+					}
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Write the mapped pages to disk and close the file
+	 */
+	@Override
+	public void Close() {
+		try {
+			map.force();
+			channel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	//---------------------------------------------------------------
+	// Slot helpers, callers hold the bucket lock. Absolute reads and
+	// writes go through a duplicate so threads never share position.
+	//---------------------------------------------------------------
+	private int findSlot(int bucket, byte[] keyBytes) {
+		int found = -1;
+		long newest = 0;
+		for (int slot : slotsOf(bucket, keyBytes)) {
+			long sequence = map.getLong(slotOffset(slot) + 11);
+			if ((found < 0 || sequence > newest) && readValue(slot) != null) {
+				found = slot;
+				newest = sequence;
+			}
+		}
+		return found;
+	}
+
+	private List<Integer> slotsOf(int bucket, byte[] keyBytes) {
+		List<Integer> slots = new ArrayList<Integer>(2);
+		int first = bucket * SlotsPerBucket;
+		byte[] candidate = new byte[keyBytes.length];
+		for (int slot = first; slot < first + SlotsPerBucket; slot++) {
+			int offset = slotOffset(slot);
+			if (map.get(offset) == 0 || map.getShort(offset + 1) != keyBytes.length) {
+				continue;
+			}
+			ByteBuffer view = map.duplicate();
+			view.position(offset + SlotHeaderBytes);
+			view.get(candidate);
+			if (Arrays.equals(candidate, keyBytes)) {
+				slots.add(slot);
+			}
+		}
+		return slots;
+	}
+
+	private void writeSlot(int bucket, byte[] keyBytes, byte[] value) {
+		int current = findSlot(bucket, keyBytes);
+		int first = bucket * SlotsPerBucket;
+		int slot = -1;
+		int free = 0;
+		for (int candidate = first; candidate < first + SlotsPerBucket; candidate++) {
+			if (map.get(slotOffset(candidate)) == 0) {
+				slot = slot < 0 ? candidate : slot;
+				free++;
+			}
+		}
+		//------------------------------------------------
+		// A new key must leave a free slot behind so the
+		// next update has somewhere to go
+		//------------------------------------------------
+		if (free == 0 || (slotsOf(bucket, keyBytes).isEmpty() && free < 2)) {
+			throw new IllegalStateException("Mapped state bucket is full, increase Constants.MappedStateBuckets.");
+		}
+		long sequence = current < 0 ? 1 : map.getLong(slotOffset(current) + 11) + 1;
+		int offset = slotOffset(slot);
+		ByteBuffer view = map.duplicate();
+		view.position(offset + 1);
+		view.putShort((short) keyBytes.length);
+		view.putInt(value.length);
+		view.putInt(crcOf(sequence, value));
+		view.putLong(sequence);
+		view.put(keyBytes);
+		view.position(offset + SlotHeaderBytes + KeyBytes);
+		view.put(value);
+		//------------------------------------------------
+		// Mark used last so a half written slot is never
+		// seen as valid after a crash, then drop the old
+		// copy now that the new one is readable
+		//------------------------------------------------
+		map.put(offset, (byte) 1);
+		clearOthers(bucket, keyBytes, slot);
+	}
+
+	private void clearOthers(int bucket, byte[] keyBytes, int keep) {
+		for (int slot : slotsOf(bucket, keyBytes)) {
+			if (slot != keep) {
+				map.put(slotOffset(slot), (byte) 0);
+			}
+		}
+	}
+
+	private byte[] readValue(int slot) {
+		int offset = slotOffset(slot);
+		int length = map.getInt(offset + 3);
+		if (length < 0 || length > valueBytes) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		ByteBuffer view = map.duplicate();
+		view.position(offset + SlotHeaderBytes + KeyBytes);
+		view.get(value);
+		return crcOf(map.getLong(offset + 11), value) == map.getInt(offset + 7) ? value : null;
+	}
+
+	private static int crcOf(long sequence, byte[] value) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+		crc.update(value, 0, value.length);
+		return (int) crc.getValue();
+	}
+	private int slotOffset(int slot) {
+		return HeaderBytes + slot * slotBytes;
+	}
+
+	private int bucketOf(byte[] keyBytes) {
+		long mixed = (Arrays.hashCode(keyBytes) * 0x9E3779B97F4A7C15L) >>> 32;
+		return (int) (mixed % buckets);
+	}
+
+	private static byte[] keyBytes(String key) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > KeyBytes) {
+			throw new IllegalArgumentException("State key is longer than " + KeyBytes + " bytes: " + key);
+		}
+		return keyBytes;
+	}
+
+	private void checkValue(byte[] value) {
+		if (value.length > valueBytes) {
+			throw new IllegalArgumentException("State of " + value.length + " bytes does not fit a "
+					+ valueBytes + " byte slot, increase Constants.MappedStateValueBytes.");
+		}
+	}
+}
@@ -0,0 +1,205 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//-------------------------------------------------------------------------
+// Groups the messages of one conversation into batches. A batch is sent
+// once it holds maxMessages messages or maxDelayMillis after its first
+// message was queued, whichever comes first.
+//
+// Batches of the same conversation are sent one after the other in the
+// order they were formed, so the replies come back in message order.
+// Each Send returns a future completed with that message's reply.
+// -------------------------------------------------------------------------
+
+public class MessageBatcher {
+
+	/**
+	 * Sends one batch and returns the replies in the same order
+	 */
+	public interface BatchSender {
+		List<String> Send(int clientNum, String conversation, List<String> messages) throws Exception;
+	}
+
+	private static class PendingBatch {
+		final int clientNum;
+		final List<String> messages = new ArrayList<String>();
+		final List<CompletableFuture<String>> replies = new ArrayList<CompletableFuture<String>>();
+		ScheduledFuture<?> timer;
+
+		PendingBatch(int clientNum) {
+			this.clientNum = clientNum;
+		}
+	}
+
+	private final BatchSender sender;
+	private final int maxMessages;
+	private final long maxDelayMillis;
+	private final Executor executor;
+	private final ScheduledExecutorService timer;
+	private final ConcurrentHashMap<String, PendingBatch> pending = new ConcurrentHashMap<String, PendingBatch>();
+
+	//---------------------------------------------------------
+	// Last batch sent for each conversation, the next one
+	// waits for it. Guarded by synchronizing on the map.
+	//---------------------------------------------------------
+	private final HashMap<String, CompletableFuture<Void>> tails = new HashMap<String, CompletableFuture<Void>>();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong messages = new AtomicLong();
+
+	/**
+	 * Create the batcher
+	 *
+	 * @param sender         --> sends a full batch
+	 * @param maxMessages    --> messages that fill a batch
+	 * @param maxDelayMillis --> longest a message waits for its batch
+	 * @param executor       --> runs the sender
+	 */
+	public MessageBatcher(BatchSender sender, int maxMessages, long maxDelayMillis, Executor executor) {
+		this.sender = sender;
+		this.maxMessages = maxMessages;
+		this.maxDelayMillis = maxDelayMillis;
+		this.executor = executor;
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "MessageBatcher-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queue a message for its conversation's next batch
+	 *
+	 * @param clientNum    --> client sending the message
+	 * @param conversation --> conversation id
+	 * @param message      --> message to send
+	 * @return future completed with the decoded reply
+	 */
+	public CompletableFuture<String> Send(int clientNum, String conversation, String message) {
+		CompletableFuture<String> reply = new CompletableFuture<String>();
+		PendingBatch[] full = new PendingBatch[1];
+		pending.compute(conversation, (key, batch) -> {
+			if (batch == null) {
+				PendingBatch created = new PendingBatch(clientNum);
+				created.timer = timer.schedule(() -> flushIfPending(conversation, created), maxDelayMillis,
+						TimeUnit.MILLISECONDS);
+				batch = created;
+			}
+			batch.messages.add(message);
+			batch.replies.add(reply);
+			if (batch.messages.size() >= maxMessages) {
+				full[0] = batch;
+				return null;
+			}
+			return batch;
+		});
+		if (full[0] != null) {
+			full[0].timer.cancel(false);
+			dispatch(conversation, full[0]);
+		}
+		return reply;
+	}
+
+	/**
+	 * Send every queued batch now and wait for all batches to finish
+	 */
+	public void Close() {
+		for (Map.Entry<String, PendingBatch> entry : new ArrayList<Map.Entry<String, PendingBatch>>(pending.entrySet())) {
+			entry.getValue().timer.cancel(false);
+			flushIfPending(entry.getKey(), entry.getValue());
+		}
+		List<CompletableFuture<Void>> running;
+		synchronized (tails) {
+			running = new ArrayList<CompletableFuture<Void>>(tails.values());
+		}
+		CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+		timer.shutdownNow();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getMessages() {
+		return messages.get();
+	}
+
+	private void flushIfPending(String conversation, PendingBatch batch) {
+		if (pending.remove(conversation, batch)) {
+			dispatch(conversation, batch);
+		}
+	}
+
+	//-------------------------------------------------------
+	// Chain the batch behind the conversation's last one so
+	// batches of a conversation never overtake each other
+	//-------------------------------------------------------
+	private void dispatch(String conversation, PendingBatch batch) {
+		CompletableFuture<Void> next;
+		synchronized (tails) {
+			CompletableFuture<Void> previous = tails.get(conversation);
+			if (previous == null) {
+				previous = CompletableFuture.completedFuture(null);
+			}
+			next = previous.thenRunAsync(() -> deliver(conversation, batch), executor);
+			tails.put(conversation, next);
+		}
+		next.whenComplete((ignored, ex) -> {
+			synchronized (tails) {
+				tails.remove(conversation, next);
+			}
+		});
+	}
+
+	private void deliver(String conversation, PendingBatch batch) {
+		batches.incrementAndGet();
+		messages.addAndGet(batch.messages.size());
+		try {
+			List<String> replies = sender.Send(batch.clientNum, conversation, batch.messages);
+			for (int i = 0; i < batch.replies.size(); i++) {
+				batch.replies.get(i).complete(replies.get(i));
+			}
+		} catch (Exception ex) {
+			for (CompletableFuture<String> reply : batch.replies) {
+				reply.completeExceptionally(ex);
+			}
+		}
+	}
+}
@@ -35,12 +35,149 @@ public class Constants {
     public static String IVKey = "63137d61-992e-434e-9fcf-81fec2e599de";
     public static String EncoderPrefix = "ENC_";
     public static String DecoderPrefix = "DEC_";
+    //-------------------------------------------------------------
+    // Key prefix of the record holding both sealed states of a
+    // conversation, see LiveEngineCache
+    //-------------------------------------------------------------
+    public static String PairPrefix = "MTE_";
+    
+    //------------------------------------------------------------
+    // Cache tiers, sizes in MB. Each tier must be larger than the
+    // tier above it. 0 turns the off-heap or disk tier off.
+    //------------------------------------------------------------
+    public static long CacheHeapMB = 32;
+    public static long CacheOffHeapMB = 512;
+    public static long CacheDiskMB = 4096;
+    public static String CacheDirectory = System.getProperty("java.io.tmpdir") + java.io.File.separator + "mteClientState";
+    
+    //-----------------------------------------------------------
+    // Keep the disk tier when the process ends. Off by default
+    // since the states are encrypted with a per-run IV.
+    //-----------------------------------------------------------
+    public static boolean CacheDiskPersistent = false;
+    
+    //-------------------------------------------------------------
+    // Where sealed MTE states are kept, pass -Dmte.stateStore=
+    // EHCACHE, MAPPED_FILE or SOCKET to override
+    //-------------------------------------------------------------
+    public static StateStoreType StateStore = StateStoreType.valueOf(System.getProperty("mte.stateStore", "EHCACHE"));
+    
+    //-------------------------------------------------------------
+    // Memory-mapped store: buckets of 8 fixed slots, each slot
+    // holds one key and a value of up to MappedStateValueBytes
+    //-------------------------------------------------------------
+    public static String MappedStateFile = System.getProperty("java.io.tmpdir") + java.io.File.separator + "mteClientState.map";
+    public static int MappedStateBuckets = 16384;
+    public static int MappedStateValueBytes = 2048;
+    
+    //-------------------------------------------------------------
+    // Socket store, see StateStoreServer for the stand-in server
+    //-------------------------------------------------------------
+    public static String StateStoreHost = System.getProperty("mte.stateStoreHost", "127.0.0.1");
+    public static int StateStorePort = Integer.getInteger("mte.stateStorePort", 7070);
+    public static int StateStoreConnections = 64;
+    // Connect timeout, and how long a call waits for the server to
+    // answer before the connection is dropped and the call fails
+    public static int StateStoreConnectTimeoutMillis = 5000;
+    public static int StateStoreReadTimeoutMillis = Integer.getInteger("mte.stateStoreReadTimeout", 10000);
+    
+    //-------------------------------------------------------------
+    // Live Encoder/Decoder pairs kept instantiated in memory and
+    // how often their states are written behind to the cache
+    //-------------------------------------------------------------
+    public static int LiveEngineCapacity = 10000;
+    public static int LiveEngineFlushSeconds = 5;
+    
+    //-------------------------------------------------------------
+    // Locks conversations are spread over while they are restored
+    // or their states are replaced, see StripedLocks
+    //-------------------------------------------------------------
+    public static int ConversationLockStripes = 1024;
+    
+    //-------------------------------------------------------------
+    // Save states on every message instead of only write-behind,
+    // on by default for the mapped file so a restart resumes from
+    // the last message, pass -Dmte.writeThrough= to override
+    //-------------------------------------------------------------
+    public static boolean LiveEngineWriteThrough = Boolean.parseBoolean(
+    		System.getProperty("mte.writeThrough", String.valueOf(StateStore == StateStoreType.MAPPED_FILE)));
+    
+    //-----------------------------------------------------------
+    // File holding the secret 32 byte master key the state keys
+    // are derived from. It is kept apart from the state store and
+    // created on first use, pass -Dmte.stateKeyFile= to move it
+    //-----------------------------------------------------------
+    public static String StateKeyFile = System.getProperty("mte.stateKeyFile", "mte-state.key");
+    
+    //-----------------------------------------------------------
+    // Number of derived per-conversation state keys kept cached
+    //-----------------------------------------------------------
+    public static int StateKeyCacheSize = 100000;
+    
+    //-----------------------------------------------------------
+    // Cipher used to seal MTE states in the cache. States sealed
+    // in one mode can not be opened in the other.
+    //-----------------------------------------------------------
+    public static StateSealMode StateSeal = StateSealMode.GCM;
+    
+    //-------------------------------------------------------------
+    // Executor the clients run on, pass -Dmte.executor=COMMON_POOL,
+    // IO_POOL or VIRTUAL to override
+    //-------------------------------------------------------------
+    public static ExecutorMode Executor = ExecutorMode.valueOf(System.getProperty("mte.executor", "VIRTUAL"));
+    public static int IoPoolThreads = 512;
+    
+    //------------------------------------------------------
+    // Number of handshakes run at once when clients start
+    //------------------------------------------------------
+    public static int BootstrapParallelism = 64;
+    
+    //-------------------------------------------------------------
+    // Conversations past this fraction of the reseed interval are
+    // re-handshaked in the background, ReseedThreads at a time.
+    // Trips on a conversation past ReseedHardLimitFraction wait up
+    // to ReseedWaitMillis for the new conversation, then fail.
+    //-------------------------------------------------------------
+    public static double ReseedScheduleFraction = 0.75;
+    public static double ReseedHardLimitFraction = 0.9;
+    public static long ReseedWaitMillis = 30000;
+    public static int ReseedThreads = 4;
+    
+    //-------------------------------------------------------------
+    // Batch mode sends a client's messages in one envelope per
+    // request, flushed at BatchMaxMessages or BatchMaxDelayMillis
+    // after the first queued one, pass -Dmte.batch=true to use it
+    //-------------------------------------------------------------
+    public static boolean BatchMode = Boolean.getBoolean("mte.batch");
+    public static int BatchMaxMessages = 16;
+    public static int BatchMaxDelayMillis = 5;
+    
+    //-------------------------------------------------------------
+    // Pipeline mode keeps every conversation sending for
+    // PipelineSeconds instead of running rounds, at most
+    // PipelineMaxInFlight messages at once across all of them,
+    // pass -Dmte.pipeline=true to use it
+    //-------------------------------------------------------------
+    public static boolean PipelineMode = Boolean.getBoolean("mte.pipeline");
+    public static int PipelineMaxInFlight = Integer.getInteger("mte.maxInFlight", 256);
+    public static int PipelineSeconds = 5;
 	
+    //------------------------------------------------------
+    // Number of pre-generated key pairs kept for handshakes
+    //------------------------------------------------------
+    public static int KeyPairPoolSize = 16;
+
 	//----------------------
     // MTE Client ID header
     //----------------------
     public static String ClientIdHeader = "x-client-id";
     
+    //-------------------------------
+    // Http connect and read timeouts
+    //-------------------------------
+    public static int ConnectTimeoutSeconds = 10;
+    public static int RequestTimeoutSeconds = 30;
+    
     //-------------------
     // result codes
     //-------------------
@@ -0,0 +1,46 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient.Models;
+
+//-------------------------------------------------------------
+// Where the per-client ContactServer tasks run
+//-------------------------------------------------------------
+public enum ExecutorMode {
+	//------------------------------------------------------------
+	// Shared ForkJoinPool, about one blocked client per core
+	//------------------------------------------------------------
+	COMMON_POOL,
+	//------------------------------------------------------------
+	// Fixed pool of Constants.IoPoolThreads platform threads
+	//------------------------------------------------------------
+	IO_POOL,
+	//------------------------------------------------------------
+	// One virtual thread per client, needs Java 21 or later,
+	// falls back to IO_POOL on older runtimes
+	//------------------------------------------------------------
+	VIRTUAL
+}
@@ -27,19 +27,27 @@
 package multiClient;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.reflect.Type;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.eclypses.ecdh.*;
 import com.google.gson.*;
@@ -58,18 +66,31 @@ public class MteConsoleMultipleClients {
 	private static int maxNumberOfTrips = 5;
 	private static String encIV;
 	private static long maxSeedInterval = 0;
+	private static List<String> storedConversations = new ArrayList<String>();
+	
+	//---------------------------------------------------------
+	// Per message output, the load test turns it off
+	//---------------------------------------------------------
+	private static boolean verbose = true;
+	
+	//---------------------------------------------------------
+	// Trip phase histograms, only set while the load test runs
+	//---------------------------------------------------------
+	private static TripPhases tripPhases;
 	
 	//------------------------------------------
     // Declare different possible content types
     //------------------------------------------
     private static String jsonContentType = "application/json";
     private static String textContentType = "text/plain";
+    private static String binaryContentType = "application/octet-stream";
     
     //------------------
     // Set Rest API URL
     //------------------
     //private static String _restAPIName = "http://localhost:52603";
-    private static String restAPIName = "https://dev-echo.eclypses.com";
+    // Pass -Dmte.restApi=<url> to run against the MteLocalServer
+    private static String restAPIName = System.getProperty("mte.restApi", "https://dev-echo.eclypses.com");
     
     //--------------------------------------------------------
     // Create gson object that be compatible with C-Sharp json
@@ -93,7 +114,36 @@ public class MteConsoleMultipleClients {
     //--------------
     // State Helpers
     //--------------
-    private static CacheHelper mteStateCacheHelper;
+    private static MteStateStore mteStateStore;
+    private static LiveEngineCache liveEngines;
+    
+    //-----------------------------------------------------
+    // Executor the clients run on, see Constants.Executor
+    //-----------------------------------------------------
+    private static ClientExecutor clientExecutor;
+    
+    //------------------------------------------------------------
+    // Re-handshakes conversations nearing their reseed interval
+    //------------------------------------------------------------
+    private static ReseedScheduler reseedScheduler;
+    
+    //-------------------------------------------------------
+    // Groups each client's messages in batch mode, see
+    // Constants.BatchMode
+    //-------------------------------------------------------
+    private static MessageBatcher messageBatcher;
+    
+    //-------------------------------------------------------
+    // Runs the conversations without round barriers in
+    // pipeline mode, see Constants.PipelineMode
+    //-------------------------------------------------------
+    private static ConversationPipeline conversationPipeline;
+    
+    //----------------------------------------------------
+    // Pre-generated key pairs so each handshake does not
+    // wait on key generation
+    //----------------------------------------------------
+    private static final EclypsesKeyPairPool keyPairPool = new EclypsesKeyPairPool(Constants.KeyPairPoolSize);
     
     /**
      * Main program Handshake with server then send messages
@@ -102,15 +152,15 @@ public class MteConsoleMultipleClients {
      */
     public static void main(String[] args) throws Exception {
     	try {
-    		//-------------------
-            // Create session IV 
-            //-------------------
-    		encIV = UUID.randomUUID().toString();
+    		//--------------------------------------
+            // Create array for all conversationID's
+            //--------------------------------------
+    		ConcurrentHashMap<Integer, String> clients = new ConcurrentHashMap<Integer, String>();
     		
-    		//----------------------------
-    		// Create cache for MTE state
-    		//----------------------------
-    		mteStateCacheHelper = new CacheHelper();
+    		//----------------------------------------------------
+    		// Create the state store, caches and client executor
+    		//----------------------------------------------------
+    		Start(clients);
     		
     		//----------------
     		// Buffered input
@@ -120,81 +170,396 @@ public class MteConsoleMultipleClients {
     	    //-----------------------------------------------
             // Prompt user to ask how many clients to create
             //-----------------------------------------------
-    		System.out.println("How many clients? (Enter number between 1-50)");
-    		int clientNum = Integer.parseInt(br.readLine());
+    		System.out.println("How many clients? (Enter a number greater than 0)");
+    		int clientNum = Integer.parseInt(br.readLine().trim());
+    		if (clientNum < 1) {
+    			throw new IllegalArgumentException("Number of clients must be greater than 0.");
+    		}
     		
-    		//--------------------------------------
-            // Create array for all conversationID's
-            //--------------------------------------
-    		HashMap<Integer, String> clients = new HashMap<Integer, String>();
+    		//--------------------------------------------------------
+    		// Resume stored conversations first, they need no handshake
+    		//--------------------------------------------------------
+    		ResumeStoredClients(clientNum, clients);
     		
-    		//-----------------------------------------
-            // Run handshake and state for each client
-            //-----------------------------------------
-            for (int i = 1; i <= clientNum; i++)
-            {
-                //-----------------------------
-                // Handshake client with server
-                //-----------------------------
-                boolean handshakeSuccessful = HandshakeWithServer(i, clients, null);
-                if (!handshakeSuccessful)
-                {
-                	System.out.println("Handshake unsuccessful!");
-                    throw new Exception("Handshake unsuccessful!");
-                }
-            }
+    		//-----------------------------------------------
+            // Run handshake and state for each other client
+            //-----------------------------------------------
+    		BootstrapClients(clientNum, clients);
             
             //----------------------------------------------------
             // Completed creating mte states for number of clients
             //----------------------------------------------------
             System.out.println("Created MTE state for " + clientNum + "'s");
+            System.out.println("Key pair pool hits: " + keyPairPool.getHits() + " misses: " + keyPairPool.getMisses());
             
             while (true)
             {
             	Random rnd = new Random();
-            	//--------------------------------
-            	// Create array of all async tasks
-            	//--------------------------------
-            	CompletableFuture<?>[] tasks = new CompletableFuture<?>[clients.size()];
-            	int count = 0;
-            	//-------------------------
-            	// Iterate through clients
-            	//-------------------------
-            	for (Entry<Integer, String> mapElement : clients.entrySet()) {
-            		//--------------------------
-            		// Create actual async task
-            		//--------------------------
-            		CompletableFuture<Void> cf = CompletableFuture.runAsync(() -> {
-            			ContactServer(rnd, mapElement.getValue(), mapElement.getKey(), clients);
-            			System.out.println("Completed ContactServer on " + mapElement.getKey());
-            		});
-            		//-------------------------
-            		// Add future to task list
-            		//-------------------------
-            		tasks[count] = cf;
-            		count++;
+            	long roundStart = System.nanoTime();
+            	if (conversationPipeline != null) {
+            		//------------------------------------------------------
+            		// Every conversation sends its next message as soon as
+            		// its last reply is decoded, no waiting on the others
+            		//------------------------------------------------------
+            		long sent = conversationPipeline.Run(clients.keySet(), Constants.PipelineSeconds * 1000L);
+            		System.out.println(String.format("Pipelined %d messages in %d s (%.0f/s).", sent,
+            				Constants.PipelineSeconds, sent / (double) Constants.PipelineSeconds));
+            	} else {
+	            	//--------------------------------
+	            	// Create array of all async tasks
+	            	//--------------------------------
+	            	CompletableFuture<?>[] tasks = new CompletableFuture<?>[clients.size()];
+	            	int count = 0;
+	            	//-------------------------
+	            	// Iterate through clients
+	            	//-------------------------
+	            	for (Entry<Integer, String> mapElement : clients.entrySet()) {
+	            		//--------------------------
+	            		// Create actual async task
+	            		//--------------------------
+	            		CompletableFuture<Void> cf = CompletableFuture.runAsync(() -> {
+	            			if (messageBatcher != null) {
+	            				ContactServerBatched(rnd, mapElement.getValue(), mapElement.getKey(), clients);
+	            			} else {
+	            				ContactServer(rnd, mapElement.getValue(), mapElement.getKey(), clients);
+	            			}
+	            			System.out.println("Completed ContactServer on " + mapElement.getKey());
+	            		}, clientExecutor.getExecutor());
+	            		//-------------------------
+	            		// Add future to task list
+	            		//-------------------------
+	            		tasks[count] = cf;
+	            		count++;
+	            	}
+	            	//------------------------------------------------------
+	            	// Join all created tasks to run asynchronously and run
+	            	//------------------------------------------------------
+	            	CompletableFuture<Void> allFutures = CompletableFuture.allOf(tasks);
+	            	allFutures.get();
             	}
-            	//------------------------------------------------------
-            	// Join all created tasks to run asynchronously and run
-            	//------------------------------------------------------
-            	CompletableFuture<Void> allFutures = CompletableFuture.allOf(tasks);
-            	allFutures.get();         	            	
             	
             	//---------------------------------------
             	// Prompt user to run tasks again or end
             	//---------------------------------------
-            	System.out.println("Completed sending messages to " + clientNum + " clients.");
+            	System.out.println("Completed sending messages to " + clientNum + " clients in "
+            			+ (System.nanoTime() - roundStart) / 1_000_000 + " ms on " + clientExecutor.getMode() + ".");
             	System.out.println("Would you like to send additional messages to clients? (y/n)");
             	String sendAdditional = br.readLine();
             	if(sendAdditional != null && sendAdditional.equalsIgnoreCase("n")) {
             		break;
             	}
             }
+            
+            //------------------------------------------------------
+            // Save the live states, then close the state store
+            //------------------------------------------------------
+            Stop();
     	}catch(Exception ex) {
     		throw ex;
     	}
     }
     
+    /**
+     * Create the state store, the live engine cache, the client
+     * executor, the reseed scheduler and in batch mode the batcher
+     * @param clients --> client hash map the clients are kept in
+     * @throws Exception
+     */
+    static void Start(Map<Integer, String> clients) throws Exception {
+    	//---------------------------------------------------
+    	// Create store for MTE state, see Constants.StateStore
+    	//---------------------------------------------------
+    	mteStateStore = MteStateStore.Create(Constants.StateStore);
+    	System.out.println("Storing MTE state in " + Constants.StateStore);
+    	
+    	//-------------------
+        // Create session IV 
+        //-------------------
+    	encIV = UUID.randomUUID().toString();
+    	
+    	//------------------------------------------------------------
+    	// A mapped state file keeps the IV its states were sealed
+    	// with, reuse it so the stored conversations can be resumed
+    	//------------------------------------------------------------
+    	storedConversations = new ArrayList<String>();
+    	if (mteStateStore instanceof MappedFileStateStore) {
+    		MappedFileStateStore mappedStore = (MappedFileStateStore) mteStateStore;
+    		String storedIV = mappedStore.GetSessionIV();
+    		if (storedIV != null) {
+    			encIV = storedIV;
+    			storedConversations = StoredConversations(mappedStore);
+    		} else {
+    			mappedStore.SetSessionIV(encIV);
+    		}
+    	}
+    	
+    	//-------------------------------------------------------
+    	// Keep hot Encoder/Decoder pairs live, write states
+    	// behind to the store on eviction and every few seconds
+    	//-------------------------------------------------------
+    	liveEngines = new LiveEngineCache(mteStateStore, encIV, Constants.LiveEngineCapacity,
+    			Constants.LiveEngineFlushSeconds, Constants.LiveEngineWriteThrough, Constants.ConversationLockStripes);
+    	liveEngines.setPhases(tripPhases);
+    	
+    	//---------------------------------------------------
+    	// Create the executor the client tasks fan out on
+    	//---------------------------------------------------
+    	clientExecutor = new ClientExecutor(Constants.Executor, Constants.IoPoolThreads);
+    	System.out.println("Running clients on " + clientExecutor.getMode());
+    	
+    	//---------------------------------------------------------
+    	// Swap in fresh conversations ahead of the reseed interval
+    	//---------------------------------------------------------
+    	reseedScheduler = new ReseedScheduler((client, conversation) -> ReseedConversation(client, clients, conversation),
+    			Constants.ReseedScheduleFraction, Constants.ReseedThreads);
+    	if (Constants.BatchMode) {
+    		messageBatcher = new MessageBatcher((client, conversation, messages) -> SendBatch(client, clients, conversation, messages),
+    				Constants.BatchMaxMessages, Constants.BatchMaxDelayMillis, clientExecutor.getExecutor());
+    		System.out.println("Sending messages in batches of up to " + Constants.BatchMaxMessages + ".");
+    	}
+    	if (Constants.PipelineMode) {
+    		conversationPipeline = new ConversationPipeline((client, trip) -> Send(client, clients, clients.get(client),
+    				"Hello from client " + client + " for the " + trip + " time."),
+    				Constants.PipelineMaxInFlight, clientExecutor.getExecutor());
+    		System.out.println("Pipelining conversations, at most " + Constants.PipelineMaxInFlight + " messages in flight.");
+    	}
+    }
+    
+    /**
+     * Give the first clients the conversations found in the state
+     * store at Start, they need no handshake
+     * @param clientNum --> number of clients
+     * @param clients --> client hash map
+     * @return number of clients resumed
+     */
+    static int ResumeStoredClients(int clientNum, Map<Integer, String> clients) {
+    	int resumed = Math.min(clientNum, storedConversations.size());
+    	for (int i = 0; i < resumed; i++) {
+    		clients.put(i + 1, storedConversations.get(i));
+    	}
+    	if (resumed > 0) {
+    		System.out.println("Resumed " + resumed + " conversations from " + Constants.MappedStateFile + ".");
+    	}
+    	return resumed;
+    }
+    
+    /**
+     * Print the cache and scheduler counts, save the live states and
+     * close everything Start created
+     * @throws Exception
+     */
+    static void Stop() throws Exception {
+    	System.out.println("Live engine hits: " + liveEngines.getHits() + " misses: " + liveEngines.getMisses());
+    	System.out.println("Conversation lock " + liveEngines.getConversationContention());
+    	System.out.println("Live pair lock " + liveEngines.getPairContention());
+    	System.out.println("Background reseeds scheduled: " + reseedScheduler.getScheduled() + " completed: "
+    			+ reseedScheduler.getCompleted() + " failed: " + reseedScheduler.getFailed());
+    	if (messageBatcher != null) {
+    		messageBatcher.Close();
+    		System.out.println("Batches sent: " + messageBatcher.getBatches() + " messages: " + messageBatcher.getMessages());
+    	}
+    	if (conversationPipeline != null) {
+    		System.out.println("Pipelined messages: " + conversationPipeline.getCompleted() + " failed: "
+    				+ conversationPipeline.getFailed() + " peak in flight: " + conversationPipeline.getPeakInFlight());
+    	}
+    	clientExecutor.Close();
+    	reseedScheduler.Close();
+    	liveEngines.Close();
+    	mteStateStore.Close();
+    }
+    
+    /**
+     * Cache, pool and scheduler counts for the load test report
+     * @return count name to value
+     */
+    static Map<String, Object> Counters() {
+    	Map<String, Object> counters = new LinkedHashMap<String, Object>();
+    	counters.put("liveEngineHits", liveEngines.getHits());
+    	counters.put("liveEngineMisses", liveEngines.getMisses());
+    	counters.put("conversationLocks", liveEngines.getConversationContention().toSummary());
+    	counters.put("livePairLocks", liveEngines.getPairContention().toSummary());
+    	counters.put("keyPairPoolHits", keyPairPool.getHits());
+    	counters.put("keyPairPoolMisses", keyPairPool.getMisses());
+    	counters.put("reseedsScheduled", reseedScheduler.getScheduled());
+    	counters.put("reseedsCompleted", reseedScheduler.getCompleted());
+    	counters.put("reseedsFailed", reseedScheduler.getFailed());
+    	if (messageBatcher != null) {
+    		counters.put("batches", messageBatcher.getBatches());
+    		counters.put("batchedMessages", messageBatcher.getMessages());
+    	}
+    	return counters;
+    }
+    
+    static ClientExecutor getClientExecutor() {
+    	return clientExecutor;
+    }
+    
+    static String getRestApi() {
+    	return restAPIName;
+    }
+    
+    static void setRestApi(String url) {
+    	restAPIName = url;
+    }
+    
+    static void setVerbose(boolean on) {
+    	verbose = on;
+    }
+    
+    static void setTripPhases(TripPhases phases) {
+    	tripPhases = phases;
+    }
+    
+    /**
+     * Handshake every client that is not in the map yet. The key
+     * exchanges run concurrently, at most Constants.BootstrapParallelism
+     * at a time, then all shared secrets are created in one
+     * EclypsesECDH.createSharedSecrets batch and the MTE states are
+     * created concurrently again. Progress is reported every tenth
+     * of the way.
+     * @param clientNum --> number of clients to create
+     * @param clients --> client map filled with conversation ids
+     * @throws Exception if any handshake failed
+     */
+    static void BootstrapClients(int clientNum, Map<Integer, String> clients) throws Exception {
+    	List<Integer> pending = new ArrayList<Integer>();
+    	for (int i = 1; i <= clientNum; i++) {
+    		if (!clients.containsKey(i)) {
+    			pending.add(i);
+    		}
+    	}
+    	if (pending.isEmpty()) {
+    		return;
+    	}
+    	int handshakes = pending.size();
+    	long start = System.nanoTime();
+    	int parallelism = Math.max(1, Math.min(Constants.BootstrapParallelism, handshakes));
+    	System.out.println("Handshaking " + handshakes + " clients, " + parallelism + " at a time.");
+    	
+    	//------------------------------------------
+    	// Exchange public keys with the server
+    	//------------------------------------------
+    	ConcurrentLinkedQueue<PendingHandshake> exchanged = new ConcurrentLinkedQueue<PendingHandshake>();
+    	int failed = RunBootstrapStep(pending, parallelism, "Key exchanges completed", clientId -> {
+    		PendingHandshake exchange = ExchangeKeys(clientId, clients, null);
+    		if (exchange == null) {
+    			return false;
+    		}
+    		exchanged.add(exchange);
+    		return true;
+    	});
+    	
+    	//------------------------------------------------------
+    	// Create every shared secret in one parallel batch,
+    	// two agreements (Encoder and Decoder) per client
+    	//------------------------------------------------------
+    	List<PendingHandshake> ready = new ArrayList<PendingHandshake>(exchanged);
+    	EclypsesECDH[] devices = new EclypsesECDH[ready.size() * 2];
+    	byte[][] partnerKeys = new byte[devices.length][];
+    	for (int i = 0; i < ready.size(); i++) {
+    		PendingHandshake exchange = ready.get(i);
+    		devices[2 * i] = exchange.encoderEcdh;
+    		partnerKeys[2 * i] = exchange.server.ClientEncoderPublicKey;
+    		devices[2 * i + 1] = exchange.decoderEcdh;
+    		partnerKeys[2 * i + 1] = exchange.server.ClientDecoderPublicKey;
+    	}
+    	long secretsStart = System.nanoTime();
+    	byte[][] secrets = EclypsesECDH.createSharedSecrets(devices, partnerKeys);
+    	System.out.println(String.format("Created %d shared secrets in %d ms.", secrets.length,
+    			(System.nanoTime() - secretsStart) / 1_000_000));
+    	
+    	//------------------------------------------
+    	// Create and store the MTE states
+    	//------------------------------------------
+    	List<Integer> indexes = new ArrayList<Integer>(ready.size());
+    	for (int i = 0; i < ready.size(); i++) {
+    		indexes.add(i);
+    	}
+    	failed += RunBootstrapStep(indexes, parallelism, "MTE states created", i ->
+    			CompleteHandshake(ready.get(i), secrets[2 * i], secrets[2 * i + 1]));
+    	
+    	System.out.println(String.format("Bootstrap of %d clients took %d ms.", handshakes, (System.nanoTime() - start) / 1_000_000));
+    	if (failed > 0)
+        {
+        	System.out.println("Handshake unsuccessful for " + failed + " clients!");
+            throw new Exception("Handshake unsuccessful for " + failed + " clients!");
+        }
+    }
+    
+    //---------------------------------------------
+    // One step of the bootstrap for a single item
+    //---------------------------------------------
+    private interface BootstrapStep<T> {
+    	boolean run(T item) throws Exception;
+    }
+    
+    /**
+     * Run a bootstrap step for every item on the client executor,
+     * at most parallelism at a time
+     * @param items --> items to run the step for
+     * @param parallelism --> maximum concurrent steps
+     * @param label --> progress message prefix
+     * @param step --> step to run, false or an exception is a failure
+     * @return number of failed items
+     * @throws InterruptedException
+     */
+    private static <T> int RunBootstrapStep(List<T> items, int parallelism, String label, BootstrapStep<T> step)
+    		throws InterruptedException {
+    	int total = items.size();
+    	long start = System.nanoTime();
+    	int reportEvery = Math.max(1, total / 10);
+    	Semaphore slots = new Semaphore(parallelism);
+    	AtomicInteger completed = new AtomicInteger();
+    	AtomicInteger failed = new AtomicInteger();
+    	for (T item : items)
+        {
+    		//-----------------------------------------------
+    		// Wait for a free slot so the server is not
+    		// flooded, then run on the client executor
+    		//-----------------------------------------------
+    		slots.acquire();
+    		clientExecutor.getExecutor().execute(() -> {
+    			try {
+    				if (!step.run(item)) {
+    					failed.incrementAndGet();
+    				}
+    			} catch (Exception ex) {
+    				failed.incrementAndGet();
+    			} finally {
+    				int done = completed.incrementAndGet();
+    				if (done % reportEvery == 0 || done == total) {
+    					double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+    					System.out.println(String.format("%s: %d/%d (%.0f/s)", label, done, total, done / seconds));
+    				}
+    				slots.release();
+    			}
+    		});
+        }
+    	
+    	//-----------------------------------
+    	// Wait for the last steps to end
+    	//-----------------------------------
+    	slots.acquire(parallelism);
+    	slots.release(parallelism);
+    	return failed.get();
+    }
+    
+    /**
+     * Conversations with a state pair record in the mapped state file
+     * @param mappedStore --> mapped state store
+     * @return conversation ids in a stable order
+     */
+    private static List<String> StoredConversations(MappedFileStateStore mappedStore) {
+    	List<String> conversations = new ArrayList<String>();
+    	for (String key : mappedStore.Keys()) {
+    		if (key.startsWith(Constants.PairPrefix)) {
+    			conversations.add(key.substring(Constants.PairPrefix.length()));
+    		}
+    	}
+    	conversations.sort(null);
+    	return conversations;
+    }
+    
     /**
      * Contact Server will send an encoded message to the server 
      * then decode what comes back
@@ -203,13 +568,8 @@ public class MteConsoleMultipleClients {
      * @param clientNum --> current client number 
      * @param clients --> client hash map
      */
-    private static void ContactServer(Random rnd, String currentConversation, int clientNum, HashMap<Integer, String> clients){
+    private static void ContactServer(Random rnd, String currentConversation, int clientNum, Map<Integer, String> clients){
     	try {
-    		//--------------------------
-    		// Create encryption helper
-    		//--------------------------
-    		EncryptionHelper crypt = new EncryptionHelper();
-    		
     		//-------------------------------------------------
             // Randomly select number of trips between 1 and max number of trips
             //-------------------------------------------------
@@ -220,156 +580,19 @@ public class MteConsoleMultipleClients {
             //---------------------------------------
             for (int t = 0; t < numberTrips; t++)
             {
-                //-------------------------------------
-                // Get the current client Encoder state
-                //-------------------------------------
-            	String encryptedEncState = mteStateCacheHelper.Get(Constants.EncoderPrefix + currentConversation);            	
-            	if(encryptedEncState == null || encryptedEncState == "") {
-            		throw new Exception("Cannot find encryted Encoder State for " + currentConversation);
-            	}
-            	String encoderState = crypt.decrypt(encryptedEncState, 
-            			EncryptionHelper.SHA256(currentConversation, 64), 
-            			encIV.toString());
-            	
-            	//-------------------------------------
-                // Restore the Encoder ensure it works
-                //-------------------------------------
-            	MteEnc encoder = new MteEnc();
-            	MteStatus encoderStatus = encoder.restoreStateB64(encoderState);
-            	if (encoderStatus != MteStatus.mte_status_success)
-                {
-                    System.out.println("Error restoring the Encoder mte state for Client " + clientNum +": " + MteBase.getStatusDescription(encoderStatus));
-                    throw new Exception("Error restoring the Encoder mte state for Client " + clientNum + ": " + MteBase.getStatusDescription(encoderStatus));
-                }
-            	            	
-            	//-------------------------
-                // Encode message to send
-                //-------------------------
-                String message = "Hello from client " + clientNum + " for the " + (t + 1) + " time.";
-                StrStatus encodedPayload = encoder.encodeB64(message);
-                if(encodedPayload.status != MteStatus.mte_status_success) {
-                	System.out.println("Error encoding the message: " + MteBase.getStatusDescription(encodedPayload.status));
-                    throw new Exception("Error restoring the Decoder mte state for Client " + clientNum + ": " + MteBase.getStatusDescription(encodedPayload.status));
-                }
-                System.out.println("Sending message " + message + "to multi-client server.");
-                
-                //-----------------------------------------------------------
-                // Send encoded message to server, putting clientId in header
-                //-----------------------------------------------------------
-                String multipleClientResponse = MakeHttpCall(restAPIName + "/api/multiclient", "POST", currentConversation, textContentType, encodedPayload.str);
-                
-                //----------------------
-                // de-serialize response
-                //----------------------
-                Type multipClientResponseType = new TypeToken<ResponseModel<String>>() {}.getType();
-            	ResponseModel<String> serverResponse = gson.fromJson(multipleClientResponse, multipClientResponseType);
-            	if(!serverResponse.Success) {
-            		if(serverResponse.ResultCode.equalsIgnoreCase(Constants.RC_MTE_STATE_NOT_FOUND)) {
-            			//-------------------------------------------------------------------------
-                        // the server does not have this client's state - we should "re-handshake"
-                        //-------------------------------------------------------------------------
-                        boolean handshakeIsSuccessful = HandshakeWithServer(clientNum, clients, currentConversation);
-                        if (!handshakeIsSuccessful)
-                        {
-                            System.out.println("Error from server for client " + clientNum + ": " + serverResponse.Message);
-                            throw new Exception("Error from server for client " + clientNum + ": " + serverResponse.Message);
-                        }
-                        //-----------------------------------------------------------------
-                        // break out of this loop so we can contact again after handshake
-                        //-----------------------------------------------------------------
-                        return;
-            		}
-            	}
-            	
             	//---------------------------------------------------
-                // If this was successful save the new Encoder state
-                //---------------------------------------------------
-            	encoderState = encoder.saveStateB64();
-            	encryptedEncState = crypt.encrypt(encoderState,
-                        EncryptionHelper.SHA256(currentConversation, 64),
-                        encIV.toString());
-        		
-            	mteStateCacheHelper.Store(Constants.EncoderPrefix + currentConversation, encryptedEncState);
-            	
-        		//-------------------------------------
-                // Get the current client Decoder state
-                //-------------------------------------
-            	String encryptedDecState = mteStateCacheHelper.Get(Constants.DecoderPrefix + currentConversation);
-            		if(encryptedDecState == null || encryptedDecState == "") {
-            			throw new Exception("Cannot find encryted Decoder State for " + currentConversation);
-            		}
-            	String decoderState = crypt.decrypt(encryptedDecState, 
-            			EncryptionHelper.SHA256(currentConversation, 64), 
-            			encIV.toString());
+            	// The reseed scheduler may have swapped in a fresh
+            	// conversation for this client since the last trip
+            	//---------------------------------------------------
+            	currentConversation = clients.getOrDefault(clientNum, currentConversation);
             	
-            	//-------------------------------------
-                // Restore the Decoder ensure it works
-                //-------------------------------------
-            	MteDec decoder = new MteDec();
-            	MteStatus decoderStatus = decoder.restoreStateB64(decoderState);
-            	if (decoderStatus != MteStatus.mte_status_success)
-                {
-					String errorMessage = "Error restoring the Decoder mte state for Client " + clientNum +": " + MteBase.getStatusDescription(decoderStatus)
-                    System.out.println(errorMessage);
-                    throw new Exception(errorMessage);
-                }
-        		
-        		//-----------------------------
-                // Decode the incoming message
-                //-----------------------------
-        		StrStatus decodedMessage = decoder.decodeStrB64(serverResponse.Data);
-        		if(decodedMessage.status != MteStatus.mte_status_success) {
-					String errorMessage = "Error decoding the message: " + MteBase.getStatusDescription(decodedMessage.status);
-                	System.out.println(errorMessage);
-                    throw new Exception(errorMessage);
-                }
-        		
-        		//-------------------------
-				// Check current seed life
-				//-------------------------
-				long currentSeed = decoder.getReseedCounter();
-				
-				if(currentSeed > (maxSeedInterval * .9)) {
-					// Uninstantiate the Decoder
-					decoderStatus = decoder.uninstantiate();
-					if(decoderStatus != MteStatus.mte_status_success)
-					{
-					    // MTE was not uninstantiated as desired so handle failure appropriately
-					    // Below is only an example
-					    throw new Exception("Failed to uninstantiate Decoder. Status: "
-					        + MteBase.getStatusName(decoderStatus)+ " / "
-					        + MteBase.getStatusDescription(decoderStatus));
-					}
-					// Uninstantiate the Encoder
-					encoderStatus = encoder.uninstantiate();
-					if(encoderStatus != MteStatus.mte_status_success)
-					{
-					    // MTE was not uninstantiated as desired so handle failure appropriately
-					    // Below is only an example
-					    throw new Exception("Failed to uninstantiate Encoder. Status: "
-					        + MteBase.getStatusName(encoderStatus)+ " / "
-					        + MteBase.getStatusDescription(encoderStatus));
-					}
-					//-----------------------------
-	                // Handshake client with server
-	                //-----------------------------
-	                boolean handshakeSuccessful = HandshakeWithServer(clientNum, clients, null);
-	                if (!handshakeSuccessful)
-	                {
-	                	System.out.println("Handshake unsuccessful!");
-	                    throw new Exception("Handshake unsuccessful!");
-	                }
-					
-				}else {
-					//----------------------------------------
-	                // If decode is successful save new state 
-	                //----------------------------------------
-	        		decoderState = decoder.saveStateB64();
-	        		encryptedDecState = crypt.encrypt(decoderState, 
-	        				EncryptionHelper.SHA256(currentConversation, 64), 
-	        				encIV.toString());
-	        		mteStateCacheHelper.Store(Constants.DecoderPrefix + currentConversation, encryptedDecState);
-				}
+            	String message = "Hello from client " + clientNum + " for the " + (t + 1) + " time.";
+            	if (SendMessage(clientNum, clients, currentConversation, message) == null) {
+            		//-----------------------------------------------------------------
+                    // break out of this loop so we can contact again after handshake
+                    //-----------------------------------------------------------------
+            		return;
+            	}
         		
         		// Sleep between each call a random amount of time
                 // between 10 and 100 milli-seconds
@@ -385,6 +608,392 @@ public class MteConsoleMultipleClients {
 		return;
     }
     
+    /**
+     * Encode one message, send it to the server and decode the reply
+     * @param clientNum --> current client number
+     * @param clients --> client hash map
+     * @param currentConversation --> client conversation
+     * @param message --> message to send
+     * @return decoded reply, or null if the server had lost the state
+     * and the conversation was re-handshaked
+     * @throws Exception if the message was not delivered
+     */
+    static String SendMessage(int clientNum, Map<Integer, String> clients, String currentConversation, String message) throws Exception {
+    	TripPhases phases = tripPhases;
+    	
+        //-----------------------------------------------------
+        // Get and lock the live Encoder and Decoder for this
+        // client, restored from the state cache when not live
+        //-----------------------------------------------------
+    	LiveEngineCache.ConversationEngines engines = AcquireEngines(clientNum, clients, currentConversation);
+    	currentConversation = engines.getConversation();
+    	
+    	try {
+        	MteEnc encoder = engines.Encoder;
+        	MteDec decoder = engines.Decoder;
+    	            	
+        	//-------------------------
+            // Encode message to send
+            //-------------------------
+        	long start = System.nanoTime();
+            StrStatus encodedPayload = encoder.encodeB64(message);
+            if(encodedPayload.status != MteStatus.mte_status_success) {
+            	System.out.println("Error encoding the message: " + MteBase.getStatusDescription(encodedPayload.status));
+                throw new Exception("Error encoding the message for Client " + clientNum + ": " + MteBase.getStatusDescription(encodedPayload.status));
+            }
+            engines.MarkDirty();
+            long encoded = System.nanoTime();
+            if (verbose) {
+            	System.out.println("Sending message " + message + "to multi-client server.");
+            }
+        
+            //-----------------------------------------------------------
+            // Send encoded message to server, putting clientId in header
+            //-----------------------------------------------------------
+            String multipleClientResponse = HttpTransport.MakeHttpCall(restAPIName + "/api/multiclient", "POST", currentConversation, textContentType, encodedPayload.str);
+            long sent = System.nanoTime();
+        
+            //----------------------
+            // de-serialize response
+            //----------------------
+            Type multipClientResponseType = new TypeToken<ResponseModel<String>>() {}.getType();
+        	ResponseModel<String> serverResponse = gson.fromJson(multipleClientResponse, multipClientResponseType);
+        	if(!serverResponse.Success) {
+        		if(serverResponse.ResultCode.equalsIgnoreCase(Constants.RC_MTE_STATE_NOT_FOUND)) {
+        			//-------------------------------------------------------------------------
+                    // the server does not have this client's state - we should "re-handshake"
+                    //-------------------------------------------------------------------------
+                    boolean handshakeIsSuccessful = HandshakeWithServer(clientNum, clients, currentConversation);
+                    if (!handshakeIsSuccessful)
+                    {
+                        System.out.println("Error from server for client " + clientNum + ": " + serverResponse.Message);
+                        throw new Exception("Error from server for client " + clientNum + ": " + serverResponse.Message);
+                    }
+                    return null;
+        		}
+        		throw new Exception("Error from server for client " + clientNum + ": " + serverResponse.Message);
+        	}
+    		
+    		//-----------------------------
+            // Decode the incoming message
+            //-----------------------------
+    		long received = System.nanoTime();
+    		StrStatus decodedMessage = decoder.decodeStrB64(serverResponse.Data);
+    		if(decodedMessage.status != MteStatus.mte_status_success) {
+				String errorMessage = "Error decoding the message: " + MteBase.getStatusDescription(decodedMessage.status);
+            	System.out.println(errorMessage);
+                throw new Exception(errorMessage);
+            }
+    		engines.MarkDirty();
+    		if (phases != null) {
+    			phases.Encode.record(encoded - start);
+    			phases.Http.record(sent - encoded);
+    			phases.Decode.record(System.nanoTime() - received);
+    		}
+			return decodedMessage.str;
+    	} finally {
+    		liveEngines.Release(engines);
+    	}
+    }
+    
+    /**
+     * Send one message, through the batcher in batch mode
+     * @param clientNum --> current client number
+     * @param clients --> client hash map
+     * @param currentConversation --> client conversation
+     * @param message --> message to send
+     * @return decoded reply, or null if the conversation was re-handshaked
+     * @throws Exception if the message was not delivered
+     */
+    static String Send(int clientNum, Map<Integer, String> clients, String currentConversation, String message) throws Exception {
+    	if (messageBatcher == null) {
+    		return SendMessage(clientNum, clients, currentConversation, message);
+    	}
+    	try {
+    		return messageBatcher.Send(clientNum, currentConversation, message).get();
+    	} catch (ExecutionException ex) {
+    		if (ex.getCause() instanceof Exception) {
+    			throw (Exception) ex.getCause();
+    		}
+    		throw ex;
+    	}
+    }
+    
+    /**
+     * Batch mode version of ContactServer, the client queues all of
+     * its messages at once and then waits for the replies
+     * @param rnd -->Random generator for number of trips 
+     * @param currentConversation -->Client conversation
+     * @param clientNum --> current client number 
+     * @param clients --> client hash map
+     */
+    private static void ContactServerBatched(Random rnd, String currentConversation, int clientNum, Map<Integer, String> clients) {
+    	try {
+    		int numberTrips = rnd.nextInt(maxNumberOfTrips-1) + 1;
+    		currentConversation = clients.getOrDefault(clientNum, currentConversation);
+    		
+    		//--------------------------------------------------
+    		// Queue every message, the batcher packs them into
+    		// as few requests as its size and delay allow
+    		//--------------------------------------------------
+    		List<CompletableFuture<String>> replies = new ArrayList<CompletableFuture<String>>();
+    		for (int t = 0; t < numberTrips; t++) {
+    			String message = "Hello from client " + clientNum + " for the " + (t + 1) + " time.";
+    			System.out.println("Queueing message " + message + " for multi-client server.");
+    			replies.add(messageBatcher.Send(clientNum, currentConversation, message));
+    		}
+    		CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).get();
+    		
+    		// Sleep after the batch a random amount of time
+    		// between 10 and 100 milli-seconds
+    		Thread.sleep(rnd.nextInt(100));
+    	} catch (ExecutionException ex) {
+    		System.out.println("Exception contacting server: " + ex.getCause().getMessage());
+    	} catch (Exception ex) {
+    		ex.printStackTrace();
+    		System.out.println("Exception contacting server: " + ex.getMessage());
+    	}
+    }
+    
+    /**
+     * Encode a batch of messages, send them in one envelope and
+     * decode the replies, called by the MessageBatcher
+     * @param clientNum --> current client number
+     * @param clients --> client hash map
+     * @param conversation --> conversation the messages belong to
+     * @param messages --> messages in order
+     * @return decoded replies in the same order
+     * @throws Exception if the batch was not delivered, the conversation
+     * has then handshaken again
+     */
+    private static List<String> SendBatch(int clientNum, Map<Integer, String> clients, String conversation,
+    		List<String> messages) throws Exception {
+    	LiveEngineCache.ConversationEngines engines = AcquireEngines(clientNum, clients, conversation);
+    	conversation = engines.getConversation();
+    	TripPhases phases = tripPhases;
+    	boolean outOfStep = false;
+    	try {
+    		//--------------------------------------------------------
+    		// Encode every message in order, from here until every
+    		// reply is decoded a failure leaves the Encoder or Decoder
+    		// ahead of the server's
+    		//--------------------------------------------------------
+    		long start = System.nanoTime();
+    		outOfStep = true;
+    		List<byte[]> encoded = new ArrayList<byte[]>(messages.size());
+    		for (String message : messages) {
+    			MteBase.ArrStatus encodedPayload = engines.Encoder.encode(message.getBytes(StandardCharsets.UTF_8));
+    			if (encodedPayload.status != MteStatus.mte_status_success) {
+    				throw new Exception("Error encoding the message: " + MteBase.getStatusDescription(encodedPayload.status));
+    			}
+    			encoded.add(encodedPayload.arr);
+    		}
+    		engines.MarkDirty();
+    		long packed = System.nanoTime();
+    		
+    		//--------------------------------------------------------
+    		// Send the envelope, an error comes back as a JSON model
+    		//--------------------------------------------------------
+    		HttpResponse<byte[]> response = HttpTransport.MakeBinaryHttpCall(restAPIName + "/api/multiclient/batch",
+    				conversation, binaryContentType, BatchEnvelope.Pack(encoded));
+    		long sent = System.nanoTime();
+    		String contentType = response.headers().firstValue("Content-Type").orElse("");
+    		if (response.statusCode() != 200 || !contentType.startsWith(binaryContentType)) {
+    			ResponseModel<String> serverResponse = null;
+    			try {
+    				Type responseType = new TypeToken<ResponseModel<String>>() {}.getType();
+    				serverResponse = gson.fromJson(new String(response.body(), StandardCharsets.UTF_8), responseType);
+    			} catch (JsonParseException ex) {
+    				// not a response model, reported below
+    			}
+    			if (serverResponse == null) {
+    				throw new Exception("Failed : HTTP error code : " + response.statusCode());
+    			}
+    			if (Constants.RC_MTE_STATE_NOT_FOUND.equalsIgnoreCase(serverResponse.ResultCode)) {
+    				//-------------------------------------------------------------------------
+    				// the server does not have this client's state - we should "re-handshake"
+    				//-------------------------------------------------------------------------
+    				outOfStep = false;
+    				if (!HandshakeWithServer(clientNum, clients, conversation)) {
+    					throw new Exception("Error from server for client " + clientNum + ": " + serverResponse.Message);
+    				}
+    				throw new Exception("MTE state not found for client " + clientNum + ", handshake done, batch not sent.");
+    			}
+    			throw new Exception("Error from server for client " + clientNum + ": " + serverResponse.Message);
+    		}
+    		
+    		//-------------------------------
+    		// Decode the replies in order
+    		//-------------------------------
+    		List<byte[]> encodedReplies = BatchEnvelope.Unpack(response.body(), messages.size());
+    		if (encodedReplies.size() != messages.size()) {
+    			throw new Exception("Expected " + messages.size() + " replies but got " + encodedReplies.size() + ".");
+    		}
+    		long received = System.nanoTime();
+    		List<String> replies = new ArrayList<String>(messages.size());
+    		for (byte[] encodedReply : encodedReplies) {
+    			MteBase.ArrStatus decoded = engines.Decoder.decode(encodedReply);
+    			if (decoded.status != MteStatus.mte_status_success) {
+    				throw new Exception("Error decoding the message: " + MteBase.getStatusDescription(decoded.status));
+    			}
+    			replies.add(new String(decoded.arr, StandardCharsets.UTF_8));
+    		}
+    		engines.MarkDirty();
+    		outOfStep = false;
+    		if (phases != null) {
+    			phases.Encode.record(packed - start);
+    			phases.Http.record(sent - packed);
+    			phases.Decode.record(System.nanoTime() - received);
+    		}
+    		return replies;
+    	} catch (Exception ex) {
+    		if (outOfStep) {
+    			ResyncConversation(clientNum, clients, conversation);
+    		}
+    		throw ex;
+    	} finally {
+    		liveEngines.Release(engines);
+    	}
+    }
+    
+    /**
+     * Drop a conversation whose Encoder or Decoder is no longer in step
+     * with the server's and handshake it again under the same id. The
+     * server keeps its states from before a failed batch, so without
+     * this every later batch on the conversation fails too.
+     * @param clientNum --> current client number
+     * @param clients --> client hash map
+     * @param conversation --> conversation to handshake again, the
+     * caller may hold its live pair
+     */
+    private static void ResyncConversation(int clientNum, Map<Integer, String> clients, String conversation) {
+    	liveEngines.Remove(conversation);
+    	if (!HandshakeWithServer(clientNum, clients, conversation)) {
+    		System.out.println("Error handshaking client " + clientNum + " again after a failed batch.");
+    	}
+    }
+    
+    /**
+     * Get and lock the live pair for a client's conversation. If the
+     * reseed scheduler swapped in a new conversation after the caller
+     * read it, the client's current conversation is used instead. A
+     * conversation past its reseed hard limit is given back and the
+     * trip waits for the background re-handshake, then uses the new one.
+     * @param clientNum --> current client number
+     * @param clients --> client hash map
+     * @param conversation --> conversation the caller read
+     * @return locked live pair, give it back with liveEngines.Release
+     * @throws Exception if no state is stored or the re-handshake failed
+     */
+    private static LiveEngineCache.ConversationEngines AcquireEngines(int clientNum, Map<Integer, String> clients,
+    		String conversation) throws Exception {
+    	while (true) {
+    		LiveEngineCache.ConversationEngines engines = liveEngines.Acquire(conversation);
+    		String current = clients.get(clientNum);
+    		if (engines == null && current != null && !current.equals(conversation)) {
+    			engines = liveEngines.Acquire(current);
+    		}
+    		if (engines == null) {
+    			throw new Exception("Cannot find MTE state for " + conversation);
+    		}
+    		CompletableFuture<Boolean> reseed = CheckSeedLife(clientNum, engines.getConversation(), engines.Decoder);
+    		if (reseed == null) {
+    			return engines;
+    		}
+    		
+    		//--------------------------------------------------------
+    		// Defer the trip, holding the pair would keep the old
+    		// conversation from being removed once the new one is in
+    		//--------------------------------------------------------
+    		liveEngines.Release(engines);
+    		boolean reseeded;
+    		try {
+    			reseeded = reseed.get(Constants.ReseedWaitMillis, TimeUnit.MILLISECONDS);
+    		} catch (TimeoutException ex) {
+    			reseeded = false;
+    		}
+    		if (!reseeded) {
+    			throw new Exception("Background reseed failed for client " + clientNum + ", message not sent.");
+    		}
+    		conversation = clients.get(clientNum);
+    	}
+    }
+    
+    /**
+     * Check how close the conversation is to its reseed interval before
+     * a trip. Queues a background re-handshake once it passes
+     * Constants.ReseedScheduleFraction. The message path never
+     * re-handshakes itself.
+     * @param clientNum --> current client number
+     * @param currentConversation --> conversation the pair belongs to
+     * @param decoder --> live Decoder, caller holds the pair
+     * @return the queued re-handshake to wait for once the conversation
+     * is past Constants.ReseedHardLimitFraction, otherwise null
+     * @throws Exception if the conversation is past the hard limit and
+     * no re-handshake is queued
+     */
+    private static CompletableFuture<Boolean> CheckSeedLife(int clientNum, String currentConversation, MteDec decoder)
+    		throws Exception {
+    	long currentSeed = decoder.getReseedCounter();
+    	if (maxSeedInterval <= 0) {
+    		//-------------------------------------------------
+    		// Resumed conversations skip CreateMteStates
+    		//-------------------------------------------------
+    		maxSeedInterval = MteBase.getDrbgsReseedInterval(decoder.getDrbg());
+    	}
+    	
+    	//--------------------------------------------------------
+    	// Queue a background re-handshake ahead of time, a failed
+    	// one is queued again by the next trip
+    	//--------------------------------------------------------
+    	CompletableFuture<Boolean> reseed = reseedScheduler.Observe(clientNum, currentConversation, currentSeed,
+    			maxSeedInterval);
+    	
+    	if(currentSeed <= (maxSeedInterval * Constants.ReseedHardLimitFraction)) {
+    		return null;
+    	}
+    	if (reseed == null) {
+    		throw new Exception("Conversation for client " + clientNum + " is at its reseed limit.");
+    	}
+    	return reseed;
+    }
+    
+    /**
+     * Handshake a new conversation for a client and swap it in for
+     * the current one, then drop the old conversation. Trips already
+     * running on the old conversation finish before it is removed.
+     * @param clientNum --> client to reseed
+     * @param clients --> client hash map
+     * @param conversation --> conversation being replaced
+     * @return true if the new conversation is in place
+     */
+    private static boolean ReseedConversation(int clientNum, Map<Integer, String> clients, String conversation) {
+    	if (!conversation.equals(clients.get(clientNum))) {
+    		return true;
+    	}
+    	String fresh = UUID.randomUUID().toString();
+    	if (!HandshakeWithServer(clientNum, clients, fresh)) {
+    		return false;
+    	}
+    	if (!clients.replace(clientNum, conversation, fresh)) {
+    		liveEngines.Remove(fresh);
+    		return false;
+    	}
+    	liveEngines.Remove(conversation);
+    	return true;
+    }
+    
+    //------------------------------------------------------------
+    // A handshake whose keys were exchanged with the server but
+    // whose shared secrets and MTE states are not created yet
+    //------------------------------------------------------------
+    private static final class PendingHandshake {
+    	int clientId;
+    	EclypsesECDH encoderEcdh;
+    	EclypsesECDH decoderEcdh;
+    	HandshakeModel server;
+    }
+    
     /**
      * Handshake with the server and create MTE states
      * @param clientId --> Current client id
@@ -392,11 +1001,35 @@ public class MteConsoleMultipleClients {
      * @param currentConversation --> current conversation ID
      * @return
      */
-    private static boolean HandshakeWithServer(int clientId, HashMap<Integer, String> clients, String currentConversation)
+    private static boolean HandshakeWithServer(int clientId, Map<Integer, String> clients, String currentConversation)
+    {
+    	PendingHandshake exchange = ExchangeKeys(clientId, clients, currentConversation);
+    	if (exchange == null) {
+    		return false;
+    	}
+    	
+    	//----------------------
+        // Create shared secret
+        //----------------------
+        var encoderSharedSecret = exchange.encoderEcdh.createSharedSecret(exchange.server.ClientEncoderPublicKey);
+        var decoderSharedSecret = exchange.decoderEcdh.createSharedSecret(exchange.server.ClientDecoderPublicKey);
+        return CompleteHandshake(exchange, encoderSharedSecret, decoderSharedSecret);
+    }
+    
+    /**
+     * Send this client's public keys to the server
+     * @param clientId --> Current client id
+     * @param clients --> Client hash map
+     * @param currentConversation --> current conversation ID
+     * @return the exchange or null if the server refused it
+     */
+    private static PendingHandshake ExchangeKeys(int clientId, Map<Integer, String> clients, String currentConversation)
     {
     	try 
     	{
-    		System.out.println("Performing Handshake for Client " + clientId);
+    		if (verbose) {
+    			System.out.println("Performing Handshake for Client " + clientId);
+    		}
     		
     		//--------------------------------
             // create clientId for this client
@@ -415,27 +1048,27 @@ public class MteConsoleMultipleClients {
             //-------------------------------------------------------------
             // Add client to dictionary list if this is a new conversation
             //-------------------------------------------------------------
-            if(!clients.containsKey(clientId)) {
-            	clients.put(clientId, handshake.ConversationIdentifier);
-            }
+            clients.putIfAbsent(clientId, handshake.ConversationIdentifier);
             
             //-------------------------------------------
             // Create eclypses DH containers for handshake
             //-------------------------------------------
-            EclypsesECDH encoderEcdh = new EclypsesECDH();
-            EclypsesECDH decoderEcdh = new EclypsesECDH();
+            PendingHandshake exchange = new PendingHandshake();
+            exchange.clientId = clientId;
+            exchange.encoderEcdh = new EclypsesECDH(keyPairPool);
+            exchange.decoderEcdh = new EclypsesECDH(keyPairPool);
             
             //-------------------------------------------
             // Get the public key to send to other side
             //-------------------------------------------
-            handshake.ClientEncoderPublicKey = encoderEcdh.getDevicePublicKey();
-            handshake.ClientDecoderPublicKey = decoderEcdh.getDevicePublicKey();
+            handshake.ClientEncoderPublicKey = exchange.encoderEcdh.getDevicePublicKey();
+            handshake.ClientDecoderPublicKey = exchange.decoderEcdh.getDevicePublicKey();
             
             //-------------------
             // Perform handshake
             //-------------------
             String handshakeString = gson.toJson(handshake);
-            String handshakeResponse = MakeHttpCall(restAPIName + "/api/handshake", "POST", handshake.ConversationIdentifier, jsonContentType, handshakeString);
+            String handshakeResponse = HttpTransport.MakeHttpCall(restAPIName + "/api/handshake", "POST", handshake.ConversationIdentifier, jsonContentType, handshakeString);
             
             //---------------------------------------
             // Deserialize the result from handshake
@@ -450,46 +1083,56 @@ public class MteConsoleMultipleClients {
             if (!response.Success)
             {
             	System.out.println("Error making DH handshake for Client " + clientId+ ": " +response.Message);
-                return false;
+                return null;
             }
-            
-            //----------------------
-            // Create shared secret
-            //----------------------
-            var encoderSharedSecret = encoderEcdh.createSharedSecret(response.Data.ClientEncoderPublicKey);
-            var decoderSharedSecret = decoderEcdh.createSharedSecret(response.Data.ClientDecoderPublicKey);
-            
-            //----------------------------------------------------------
-            // Create and store MTE Encoder and Decoder for this Client
-            //----------------------------------------------------------
-            
-            ResponseModel<Void> mteResponse = CreateMteStates(response.Data.ConversationIdentifier,
-            		encoderSharedSecret, 
-            		decoderSharedSecret, 
-            		Long.parseLong(response.Data.Timestamp));
-            
-            //----------------------------------------------------------
-            // Clear container to ensure key is different for each client
-            //----------------------------------------------------------
-            encoderEcdh = null;
-            decoderEcdh = null;
-            
-            //-----------------------------------------
-            // If there was an error break out of loop
-            //-----------------------------------------
-            if (!mteResponse.Success)
-            {
-                System.out.println("Error creating mte states for Client " + clientId + ": " + response.Message);
-                return false;
-            }
-            		
-            return true;
+            exchange.server = response.Data;
+            return exchange;
     	}catch (Exception ex) {
     		ex.printStackTrace();
     		throw ex;
     	}
     }
     
+    /**
+     * Create and store the MTE Encoder and Decoder of an exchanged handshake
+     * @param exchange --> handshake from ExchangeKeys
+     * @param encoderSharedSecret --> Encoder entropy, null if the agreement failed
+     * @param decoderSharedSecret --> Decoder entropy, null if the agreement failed
+     * @return
+     */
+    private static boolean CompleteHandshake(PendingHandshake exchange, byte[] encoderSharedSecret, byte[] decoderSharedSecret)
+    {
+    	//----------------------------------------------------------
+        // Clear containers to ensure key is different for each client
+        //----------------------------------------------------------
+    	exchange.encoderEcdh = null;
+    	exchange.decoderEcdh = null;
+    	if (encoderSharedSecret == null || decoderSharedSecret == null)
+    	{
+    		System.out.println("Error creating shared secret for Client " + exchange.clientId);
+    		return false;
+    	}
+    	
+        //----------------------------------------------------------
+        // Create and store MTE Encoder and Decoder for this Client
+        //----------------------------------------------------------
+        ResponseModel<Void> mteResponse = CreateMteStates(exchange.server.ConversationIdentifier,
+        		encoderSharedSecret, 
+        		decoderSharedSecret, 
+        		Long.parseLong(exchange.server.Timestamp));
+        
+        //-----------------------------------------
+        // If there was an error break out of loop
+        //-----------------------------------------
+        if (!mteResponse.Success)
+        {
+            System.out.println("Error creating mte states for Client " + exchange.clientId + ": " + mteResponse.Message);
+            return false;
+        }
+        		
+        return true;
+    }
+    
     /**
      * Create Initial MTE states and save to cache
      * @param personal --> current conversation id
@@ -502,11 +1145,6 @@ public class MteConsoleMultipleClients {
     	ResponseModel<Void> response = new ResponseModel<Void>();
     	try
     	{   
-    		//--------------------------
-    		// Create encryption helper
-    		//--------------------------
-    		EncryptionHelper crypt = new EncryptionHelper();
-    		
     		//--------------------
             // Create MTE Encoder 
             //--------------------
@@ -514,6 +1152,10 @@ public class MteConsoleMultipleClients {
     		encoder.setEntropy(encoderEntropy);
     		encoder.setNonce(nonce);
     		MteStatus status = encoder.instantiate(personal);
+    		//-------------------------------------------
+    		// Entropy is no longer needed, zeroize it
+    		//-------------------------------------------
+    		Arrays.fill(encoderEntropy, (byte) 0);
     		if (status != MteStatus.mte_status_success)
             {
                 System.out.println("Error creating Encoder: Status: " + MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
@@ -534,11 +1176,9 @@ public class MteConsoleMultipleClients {
     		//------------------------
             // Save and encrypt state
             //------------------------
-    		String encoderState = encoder.saveStateB64();
-    		String encryptedEncState = crypt.encrypt(encoderState,
-                    EncryptionHelper.SHA256(personal, 64),
-                    encIV.toString());
-    		mteStateCacheHelper.Store(Constants.EncoderPrefix + personal, encryptedEncState);
+    		byte[] encoderState = encoder.saveState();
+    		byte[] encryptedEncState = EncryptionHelper.sealState(encoderState, personal, encIV);
+    		Arrays.fill(encoderState, (byte) 0);
     		
     		//--------------------
             // Create MTE Decoder
@@ -547,6 +1187,10 @@ public class MteConsoleMultipleClients {
     		decoder.setEntropy(decoderEntropy);
     		decoder.setNonce(nonce);
     		status = decoder.instantiate(personal);
+    		//-------------------------------------------
+    		// Entropy is no longer needed, zeroize it
+    		//-------------------------------------------
+    		Arrays.fill(decoderEntropy, (byte) 0);
     		if (status != MteStatus.mte_status_success)
             {
                 System.out.println("Error creating Decoder: Status: " + MteBase.getStatusName(status) + " / " + MteBase.getStatusDescription(status));
@@ -560,11 +1204,15 @@ public class MteConsoleMultipleClients {
     		//------------------------
             // Save and encrypt state
             //------------------------
-    		String decoderState = decoder.saveStateB64();
-    		String encryptedDecState = crypt.encrypt(decoderState, 
-    				EncryptionHelper.SHA256(personal, 64), 
-    				encIV.toString());
-    		mteStateCacheHelper.Store(Constants.DecoderPrefix + personal, encryptedDecState);
+    		byte[] decoderState = decoder.saveState();
+    		byte[] encryptedDecState = EncryptionHelper.sealState(decoderState, personal, encIV);
+    		Arrays.fill(decoderState, (byte) 0);
+    		
+    		//------------------------------------------------------
+    		// Store both states and keep the new pair live for the
+    		// next trip, a restore never sees one without the other
+    		//------------------------------------------------------
+    		liveEngines.Put(personal, encoder, decoder, encryptedEncState, encryptedDecState);
 
     		response.Success = true;
     		response.ResultCode = Constants.RC_SUCCESS;
@@ -577,99 +1225,5 @@ public class MteConsoleMultipleClients {
     	}
     	return response;
     }
-    
-    
-    /**
-     * Make the Http Call
-     * @param connectionUrl --> Connection URL
-     * @param connectionMethod --> Connection Method
-     * @param clientId --> Current client id
-     * @param contentType --> http content type
-     * @param payload --> http call payload
-     * @return
-     */
-    private static String MakeHttpCall(String connectionUrl, String connectionMethod, String clientId, String contentType, String payload) {
-    	String returnPayload = "";
-    	try {
-    		//-----------------------------------------
-            // Set URI and other default Http settings
-            //-----------------------------------------
-    		URL url = new URL(connectionUrl);
-    		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    		
-    		//---------------------------
-    		// Check if we have a payload
-    		//---------------------------
-    		if(payload != null && !payload.isEmpty()) {
-    			conn.setDoOutput(true);	
-    		}    		
-    		conn.setRequestMethod(connectionMethod);
-    		conn.setRequestProperty("Content-Type", contentType);
-    		
-    		//-------------------------
-            // Add client id to header 
-            //-------------------------
-    		conn.setRequestProperty(Constants.ClientIdHeader, clientId);
-    		
-    		OutputStream os = conn.getOutputStream();
-    		os.write(payload.getBytes());
-    		os.flush();
-    		
-    		//--------------------------------------------------
-    		// If we did not get a good connection return error
-    		//--------------------------------------------------
-    		if (conn.getResponseCode() < HttpURLConnection.HTTP_OK || conn.getResponseCode() > 299) {
-    		
-    			//------------------------------------------------------
-    			// Create error response to send back to calling method
-    			//------------------------------------------------------
-    			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-    			errorResponse.Data = null;
-    			errorResponse.Message = "Failed : HTTP error code : "
-    				+ conn.getResponseCode();
-    			errorResponse.ResultCode = Constants.RC_HTTP_ERROR;
-    			returnPayload = gson.toJson(errorResponse);
-    			return returnPayload;
-    		}
-
-    		//-------------------------
-    		// Read in the inputStream
-    		//-------------------------
-    		BufferedReader br = new BufferedReader(new InputStreamReader(
-    				(conn.getInputStream())));
-    		
-    		//--------------------
-    		// Assign the payload
-    		//--------------------
-    		returnPayload = br.readLine();    		
-					
-    		//---------------------------
-    		// Disconnect the connection
-    		//---------------------------
-    		conn.disconnect();
-    		
-    		} catch (MalformedURLException e) {
-
-    			e.printStackTrace();
-    			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-    			errorResponse.Data = null;
-    			errorResponse.Message = "MalformedURLException in MakeHtteCall : "
-    				+ e.getMessage();
-    			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-    			returnPayload = gson.toJson(errorResponse);
-
-    		} catch (IOException e) {
-
-    			e.printStackTrace();
-    			ResponseModel<Object> errorResponse = new ResponseModel<Object>();
-    			errorResponse.Data = null;
-    			errorResponse.Message = "IOException in MakeHttpCall : "
-    				+ e.getMessage();
-    			errorResponse.ResultCode = Constants.RC_HTTP_EXCEPTION;
-    			returnPayload = gson.toJson(errorResponse);
-
-    		}
-    	return returnPayload;
-    }
 }
 
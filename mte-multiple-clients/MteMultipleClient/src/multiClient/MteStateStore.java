@@ -0,0 +1,114 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+package multiClient;
+
+import java.util.Collection;
+import java.util.Map;
+
+import multiClient.Models.Constants;
+import multiClient.Models.StateStoreType;
+
+//-------------------------------------------------------------------------
+// Storage for sealed MTE states. LiveEngineCache keeps both states of a
+// conversation in one record keyed by Constants.PairPrefix + conversation
+// id, so a single CompareAndSet replaces them together.
+// Backends:
+//  EHCACHE     --> CacheHelper, in process heap/off-heap/disk tiers
+//  MAPPED_FILE --> MappedFileStateStore, fixed slots in a memory-mapped
+//                  file that survives a restart
+//  SOCKET      --> SocketStateStore, a remote store shared by several
+//                  client processes, see StateStoreServer
+//
+// Values are never changed once stored, a new state is a new array.
+// -------------------------------------------------------------------------
+
+public interface MteStateStore {
+
+	/**
+	 * Get a stored value
+	 * @param key
+	 * @return value or null if not stored
+	 */
+	byte[] GetBytes(String key);
+
+	/**
+	 * Store a value, replacing any current one
+	 * @param key
+	 * @param value
+	 */
+	void Store(String key, byte[] value);
+
+	/**
+	 * Store a value only if the current one equals expected
+	 * @param key
+	 * @param expected --> current value, null means not stored
+	 * @param value
+	 * @return true if the value was stored
+	 */
+	boolean CompareAndSet(String key, byte[] expected, byte[] value);
+
+	/**
+	 * Get several values in one call
+	 * @param keys
+	 * @return found values, missing keys are left out
+	 */
+	Map<String, byte[]> GetAll(Collection<String> keys);
+
+	/**
+	 * Store several values in one call
+	 * @param values
+	 */
+	void StoreAll(Map<String, byte[]> values);
+
+	/**
+	 * Remove a value if stored
+	 * @param key
+	 */
+	void Delete(String key);
+
+	/**
+	 * Release the store
+	 */
+	void Close();
+
+	/**
+	 * Create the store selected by type with the settings in Constants
+	 * @param type --> backend to create
+	 * @return new store
+	 */
+	static MteStateStore Create(StateStoreType type) throws Exception {
+		switch (type) {
+		case MAPPED_FILE:
+			return new MappedFileStateStore(Constants.MappedStateFile, Constants.MappedStateBuckets,
+					Constants.MappedStateValueBytes);
+		case SOCKET:
+			return new SocketStateStore(Constants.StateStoreHost, Constants.StateStorePort,
+					Constants.StateStoreConnections);
+		default:
+			return new CacheHelper();
+		}
+	}
+}
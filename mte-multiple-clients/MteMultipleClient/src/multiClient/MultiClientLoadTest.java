@@ -0,0 +1,314 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import multiClient.Models.ArrivalMode;
+import multiClient.Models.Constants;
+
+//-------------------------------------------------------------------------
+// Non-interactive load test for the multi-client sample. Bootstraps N
+// clients the same way MteConsoleMultipleClients does, then has every
+// client send messages of the given size until the duration ends or it
+// has made its trips, and reports throughput, latency percentiles for the
+// whole trip and for each phase (state decrypt, restore, encode, HTTP,
+// decode, save, state encrypt) and error counts as JSON.
+//
+// With --arrivals fixed or poisson each conversation is open loop: its
+// messages are due on a schedule averaging rate/N per second whatever
+// the replies do, and trip latency is measured from the time a message
+// was due, so time spent queued behind a slow reply is included (no
+// coordinated omission). With --arrivals closed a client sends its next
+// message after the previous reply, at most rate/N per second, and trip
+// latency is measured from the send. The service histogram is always
+// measured from the send. Both only hold completed trips, failed sends
+// are timed in their own histogram. There are no rounds, each conversation moves
+// on as soon as its own reply is decoded. --max-in-flight caps the
+// messages in flight across all conversations, a message waiting for a
+// slot counts that wait in its trip latency. State store, executor and
+// batch mode come from the usual -Dmte.* properties, see Models/Constants.
+//
+// Usage: MultiClientLoadTest [--clients N] [--duration seconds]
+//        [--trips per client] [--message-size bytes] [--rate per second]
+//        [--arrivals closed|fixed|poisson] [--max-in-flight N]
+//        [--url base url] [--output file]
+// -------------------------------------------------------------------------
+
+public class MultiClientLoadTest {
+
+	private static final Gson _reportGson = new GsonBuilder().setPrettyPrinting().create();
+
+	public static void main(String[] args) throws Exception {
+		int clientNum = 100;
+		int durationSeconds = 30;
+		int trips = 0;
+		int messageSize = 64;
+		double rate = 0;
+		ArrivalMode arrivals = null;
+		int maxInFlight = 0;
+		String output = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--clients":
+				clientNum = Integer.parseInt(args[++i]);
+				break;
+			case "--duration":
+				durationSeconds = Integer.parseInt(args[++i]);
+				break;
+			case "--trips":
+				trips = Integer.parseInt(args[++i]);
+				break;
+			case "--message-size":
+				messageSize = Integer.parseInt(args[++i]);
+				break;
+			case "--rate":
+				rate = Double.parseDouble(args[++i]);
+				break;
+			case "--arrivals":
+				arrivals = ArrivalMode.valueOf(args[++i].toUpperCase());
+				break;
+			case "--max-in-flight":
+				maxInFlight = Integer.parseInt(args[++i]);
+				break;
+			case "--url":
+				MteConsoleMultipleClients.setRestApi(args[++i]);
+				break;
+			case "--output":
+				output = args[++i];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+		}
+		if (clientNum < 1 || durationSeconds < 1 || messageSize < 1) {
+			throw new IllegalArgumentException("Clients, duration and message size must be greater than 0.");
+		}
+		if (arrivals == null) {
+			arrivals = rate > 0 ? ArrivalMode.FIXED : ArrivalMode.CLOSED;
+		}
+		if (arrivals != ArrivalMode.CLOSED && rate <= 0) {
+			throw new IllegalArgumentException("Open loop arrivals need a --rate greater than 0.");
+		}
+
+		// ---------------------------------------------------
+		// Time every trip phase, no per message console output
+		// ---------------------------------------------------
+		TripPhases phases = new TripPhases();
+		MteConsoleMultipleClients.setTripPhases(phases);
+		MteConsoleMultipleClients.setVerbose(false);
+		ConcurrentHashMap<Integer, String> clients = new ConcurrentHashMap<Integer, String>();
+		MteConsoleMultipleClients.Start(clients);
+
+		// -------------------------------------------
+		// Bootstrap phase, resume or handshake all N
+		// -------------------------------------------
+		long bootstrapStart = System.nanoTime();
+		int resumed = MteConsoleMultipleClients.ResumeStoredClients(clientNum, clients);
+		MteConsoleMultipleClients.BootstrapClients(clientNum, clients);
+		double bootstrapSeconds = (System.nanoTime() - bootstrapStart) / 1_000_000_000.0;
+
+		// ------------------------------------------------
+		// Run phase, every client sends until time is up
+		// ------------------------------------------------
+		LatencyHistogram total = new LatencyHistogram();
+		LatencyHistogram service = new LatencyHistogram();
+		LatencyHistogram failed = new LatencyHistogram();
+		AtomicLong sent = new AtomicLong();
+		AtomicLong late = new AtomicLong();
+		AtomicLong completed = new AtomicLong();
+		AtomicLong rehandshakes = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		long intervalNanos = rate > 0 ? (long) (1_000_000_000L * clientNum / rate) : 0;
+		int tripLimit = trips;
+		int clientCount = clientNum;
+		ArrivalMode arrivalMode = arrivals;
+		Semaphore inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+		List<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>(clientNum);
+		for (int clientId = 1; clientId <= clientNum; clientId++) {
+			int client = clientId;
+			String message = Message(client, messageSize);
+			tasks.add(CompletableFuture.runAsync(() -> {
+				// --------------------------------------------------
+				// Spread the first sends over one interval so the
+				// clients do not all fire at the same moment
+				// --------------------------------------------------
+				Random random = new Random();
+				long due = arrivalMode == ArrivalMode.POISSON
+						? NextArrival(arrivalMode, startNanos, intervalNanos, random)
+						: startNanos + intervalNanos * (client - 1) / clientCount;
+				for (int t = 0; tripLimit == 0 || t < tripLimit; t++) {
+					if (due >= endNanos) {
+						break;
+					}
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					}
+					long sendStart = System.nanoTime();
+					if (sendStart >= endNanos) {
+						break;
+					}
+					try {
+						if (inFlight != null) {
+							inFlight.acquire();
+						}
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					String reply = null;
+					boolean delivered = false;
+					try {
+						reply = MteConsoleMultipleClients.Send(client, clients, clients.get(client), message);
+						delivered = true;
+					} catch (Exception ex) {
+						errors.incrementAndGet();
+					} finally {
+						if (inFlight != null) {
+							inFlight.release();
+						}
+					}
+					long end = System.nanoTime();
+
+					// ------------------------------------------------
+					// Only completed trips go in the latency
+					// histograms, a failed send has its own and a
+					// re-handshake is counted but not timed
+					// ------------------------------------------------
+					if (!delivered) {
+						failed.record(end - sendStart);
+					} else if (reply == null) {
+						sent.incrementAndGet();
+						rehandshakes.incrementAndGet();
+					} else {
+						sent.incrementAndGet();
+						completed.incrementAndGet();
+						service.record(end - sendStart);
+						total.record(end - (arrivalMode == ArrivalMode.CLOSED ? sendStart : due));
+					}
+					if (arrivalMode == ArrivalMode.CLOSED) {
+						due = sendStart + intervalNanos;
+					} else {
+						// ------------------------------------------------
+						// Open loop, the next message is due on schedule
+						// even if this reply came back after it
+						// ------------------------------------------------
+						if (sendStart - due > intervalNanos) {
+							late.incrementAndGet();
+						}
+						due = NextArrival(arrivalMode, due, intervalNanos, random);
+					}
+				}
+			}, MteConsoleMultipleClients.getClientExecutor().getExecutor()));
+		}
+		CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).get();
+		double elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+		Map<String, Object> counters = MteConsoleMultipleClients.Counters();
+		MteConsoleMultipleClients.Stop();
+
+		// ------------------------------
+		// Machine readable JSON report
+		// ------------------------------
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("url", MteConsoleMultipleClients.getRestApi() + "/api/multiclient");
+		report.put("clients", clientNum);
+		report.put("durationSeconds", durationSeconds);
+		report.put("tripsPerClient", trips);
+		report.put("messageSize", messageSize);
+		report.put("targetRate", rate);
+		report.put("arrivals", arrivalMode.toString());
+		report.put("maxInFlight", maxInFlight);
+		report.put("stateStore", Constants.StateStore.toString());
+		report.put("executor", MteConsoleMultipleClients.getClientExecutor().getMode().toString());
+		report.put("batchMode", Constants.BatchMode);
+		report.put("resumed", resumed);
+		report.put("bootstrapSeconds", Math.round(bootstrapSeconds * 1000) / 1000.0);
+		report.put("runSeconds", Math.round(elapsedSeconds * 1000) / 1000.0);
+		report.put("sent", sent.get());
+		report.put("completed", completed.get());
+		report.put("rehandshakes", rehandshakes.get());
+		report.put("errors", errors.get());
+		report.put("sentLate", late.get());
+		report.put("throughputPerSecond", Math.round(completed.get() / elapsedSeconds * 10) / 10.0);
+		report.putAll(counters);
+		Map<String, Object> latency = new LinkedHashMap<String, Object>();
+		latency.put("total", total.toMicrosSummary());
+		latency.put("service", service.toMicrosSummary());
+		latency.put("failed", failed.toMicrosSummary());
+		latency.putAll(phases.toMicrosSummary());
+		report.put("latencyMicros", latency);
+
+		String json = _reportGson.toJson(report);
+		System.out.println(json);
+		if (output != null) {
+			try (Writer writer = new FileWriter(output)) {
+				writer.write(json);
+			}
+		}
+	}
+
+	// -----------------------------------------------------------
+	// Time the next message is due, Poisson arrivals have
+	// exponential gaps with the same mean as the fixed interval
+	// -----------------------------------------------------------
+	private static long NextArrival(ArrivalMode mode, long previous, long intervalNanos, Random random) {
+		if (mode == ArrivalMode.POISSON) {
+			return previous + (long) (-Math.log(1.0 - random.nextDouble()) * intervalNanos);
+		}
+		return previous + intervalNanos;
+	}
+
+	// ------------------------------------------------------
+	// Message of the given size, starts with the client id
+	// ------------------------------------------------------
+	private static String Message(int clientId, int size) {
+		char[] message = new char[size];
+		Arrays.fill(message, 'x');
+		String prefix = "Hello from client " + clientId + " ";
+		prefix.getChars(0, Math.min(prefix.length(), size), message, 0);
+		return new String(message);
+	}
+}
@@ -0,0 +1,156 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//-------------------------------------------------------------------------
+// Re-handshakes conversations in the background before their DRBG
+// needs a reseed, so the message path does not stop for ECDH and the
+// handshake round trip.
+//
+// The message path reports each conversation's reseed counter with
+// Observe. Once it passes the given fraction of the reseed interval the
+// conversation is queued, at most once, and a worker runs the Reseeder.
+// The Reseeder handshakes a fresh conversation and swaps it in for the
+// client, so trips already in flight finish on the old one. Observe
+// hands back the queued re-handshake so a trip that can not go on with
+// the old conversation can wait for it.
+// -------------------------------------------------------------------------
+
+public class ReseedScheduler {
+
+	/**
+	 * Replaces a client's conversation with a freshly handshaked one
+	 */
+	public interface Reseeder {
+		/**
+		 * @param clientNum    --> client the conversation belongs to
+		 * @param conversation --> conversation nearing its reseed interval
+		 * @return true if the new conversation is in place
+		 */
+		boolean Reseed(int clientNum, String conversation) throws Exception;
+	}
+
+	private final Reseeder reseeder;
+	private final double threshold;
+	private final ExecutorService workers;
+	private final ConcurrentHashMap<String, CompletableFuture<Boolean>> queued = new ConcurrentHashMap<String, CompletableFuture<Boolean>>();
+	private final AtomicLong scheduled = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Create the scheduler and its worker threads
+	 *
+	 * @param reseeder  --> re-handshakes one conversation
+	 * @param threshold --> fraction of the reseed interval that queues a
+	 *                  conversation
+	 * @param threads   --> number of re-handshakes run at once
+	 */
+	public ReseedScheduler(Reseeder reseeder, double threshold, int threads) {
+		this.reseeder = reseeder;
+		this.threshold = threshold;
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "ReseedScheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Report a conversation's reseed counter, queueing a re-handshake
+	 * when it passes the threshold. Never blocks.
+	 *
+	 * @param clientNum       --> client the conversation belongs to
+	 * @param conversation    --> conversation id
+	 * @param reseedCounter   --> current reseed counter
+	 * @param reseedInterval  --> reseed interval of the DRBG
+	 * @return the queued re-handshake, completed with true once the new
+	 *         conversation is in place, or null below the threshold
+	 */
+	public CompletableFuture<Boolean> Observe(int clientNum, String conversation, long reseedCounter,
+			long reseedInterval) {
+		if (reseedCounter <= reseedInterval * threshold) {
+			return null;
+		}
+		CompletableFuture<Boolean> reseed = new CompletableFuture<Boolean>();
+		CompletableFuture<Boolean> pending = queued.putIfAbsent(conversation, reseed);
+		if (pending != null) {
+			return pending;
+		}
+		scheduled.incrementAndGet();
+		try {
+			workers.execute(() -> {
+				boolean done = false;
+				try {
+					done = reseeder.Reseed(clientNum, conversation);
+				} catch (Exception ex) {
+					System.out.println("Background reseed failed for client " + clientNum + ": " + ex.getMessage());
+				} finally {
+					(done ? completed : failed).incrementAndGet();
+					queued.remove(conversation);
+					reseed.complete(done);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			//------------------------------------------
+			// Closed, nothing will run the re-handshake
+			//------------------------------------------
+			failed.incrementAndGet();
+			queued.remove(conversation);
+			reseed.complete(false);
+		}
+		return reseed;
+	}
+
+	/**
+	 * Let queued re-handshakes finish and stop the workers
+	 */
+	public void Close() throws InterruptedException {
+		workers.shutdown();
+		workers.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	public long getScheduled() {
+		return scheduled.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+}
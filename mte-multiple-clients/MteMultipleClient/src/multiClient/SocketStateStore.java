@@ -0,0 +1,228 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import multiClient.Models.Constants;
+
+//-------------------------------------------------------------------------
+// MTE state store on a remote server, so several client processes can
+// share conversations. Speaks the StateStoreServer protocol over a pool
+// of keep-alive connections; each call borrows one connection, so up to
+// the pool size calls run at once.
+//
+// A failed connection, or one where the server does not answer within
+// Constants.StateStoreReadTimeoutMillis, is dropped and the call throws
+// UncheckedIOException.
+// -------------------------------------------------------------------------
+
+public class SocketStateStore implements MteStateStore {
+
+	private final String host;
+	private final int port;
+	private final ArrayBlockingQueue<Connection> idle;
+	private final Semaphore permits;
+
+	private static class Connection {
+		final Socket Socket;
+		final DataInputStream In;
+		final DataOutputStream Out;
+
+		Connection(Socket socket) throws IOException {
+			Socket = socket;
+			In = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			Out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+
+	private interface Call<T> {
+		T run(Connection connection) throws IOException;
+	}
+
+	/**
+	 * Create the store, connections are opened on first use
+	 *
+	 * @param host        --> state store host
+	 * @param port        --> state store port
+	 * @param connections --> maximum number of connections
+	 */
+	public SocketStateStore(String host, int port, int connections) {
+		this.host = host;
+		this.port = port;
+		this.idle = new ArrayBlockingQueue<Connection>(connections);
+		this.permits = new Semaphore(connections);
+	}
+
+	@Override
+	public byte[] GetBytes(String key) {
+		return call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_GET);
+			connection.Out.writeUTF(key);
+			connection.Out.flush();
+			return StateStoreServer.readValue(connection.In);
+		});
+	}
+
+	@Override
+	public void Store(String key, byte[] value) {
+		call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_PUT);
+			connection.Out.writeUTF(key);
+			StateStoreServer.writeValue(connection.Out, value);
+			connection.Out.flush();
+			return connection.In.readByte();
+		});
+	}
+
+	@Override
+	public boolean CompareAndSet(String key, byte[] expected, byte[] value) {
+		return call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_CAS);
+			connection.Out.writeUTF(key);
+			StateStoreServer.writeValue(connection.Out, expected);
+			StateStoreServer.writeValue(connection.Out, value);
+			connection.Out.flush();
+			return connection.In.readByte() == 1;
+		});
+	}
+
+	@Override
+	public Map<String, byte[]> GetAll(Collection<String> keys) {
+		List<String> keyList = new ArrayList<String>(keys);
+		return call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_GET_ALL);
+			connection.Out.writeInt(keyList.size());
+			for (String key : keyList) {
+				connection.Out.writeUTF(key);
+			}
+			connection.Out.flush();
+			Map<String, byte[]> found = new HashMap<String, byte[]>();
+			for (String key : keyList) {
+				byte[] value = StateStoreServer.readValue(connection.In);
+				if (value != null) {
+					found.put(key, value);
+				}
+			}
+			return found;
+		});
+	}
+
+	@Override
+	public void StoreAll(Map<String, byte[]> values) {
+		call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_PUT_ALL);
+			connection.Out.writeInt(values.size());
+			for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+				connection.Out.writeUTF(entry.getKey());
+				StateStoreServer.writeValue(connection.Out, entry.getValue());
+			}
+			connection.Out.flush();
+			return connection.In.readByte();
+		});
+	}
+
+	@Override
+	public void Delete(String key) {
+		call(connection -> {
+			connection.Out.writeByte(StateStoreServer.OP_DELETE);
+			connection.Out.writeUTF(key);
+			connection.Out.flush();
+			return connection.In.readByte();
+		});
+	}
+
+	/**
+	 * Close the idle connections
+	 */
+	@Override
+	public void Close() {
+		Connection connection;
+		while ((connection = idle.poll()) != null) {
+			closeQuietly(connection);
+		}
+	}
+
+	//--------------------------------------------------------------
+	// Borrow a connection, opening one if none is idle, run the call
+	// and return it. A connection that failed is never reused.
+	//--------------------------------------------------------------
+	private <T> T call(Call<T> body) {
+		permits.acquireUninterruptibly();
+		Connection connection = idle.poll();
+		try {
+			if (connection == null) {
+				connection = connect();
+			}
+			T result = body.run(connection);
+			idle.offer(connection);
+			return result;
+		} catch (IOException ex) {
+			if (connection != null) {
+				closeQuietly(connection);
+			}
+			throw new UncheckedIOException("State store call to " + host + ":" + port + " failed.", ex);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private Connection connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(Constants.StateStoreReadTimeoutMillis);
+			socket.connect(new InetSocketAddress(host, port), Constants.StateStoreConnectTimeoutMillis);
+			return new Connection(socket);
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.Socket.close();
+		} catch (IOException ex) {
+			// already closed
+		}
+	}
+}
@@ -0,0 +1,182 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.eclypses.mte.*;
+import com.eclypses.mte.MteBase.StrStatus;
+
+import multiClient.Models.Constants;
+
+//-------------------------------------------------------------------------
+// Compares the cost of one client trip through the MTE state cache:
+// restore the Encoder, encode a message, save and store the state.
+//
+//  legacy --> saveStateB64 / AES over the Base64 string / Base64 again
+//             and a String value in the cache
+//  binary --> saveState / sealState over the raw state bytes with the
+//             cached conversation key and per-thread cipher / byte[] value,
+//             Constants.StateSeal selects AES/GCM or AES/CBC
+//
+// Reports nanoseconds and bytes allocated per trip on the calling thread.
+//
+// Usage: StatePipelineBenchmark [trips per run] [runs]
+// -------------------------------------------------------------------------
+
+public class StatePipelineBenchmark {
+
+	private static final String Message = "Hello from client 1 for the 1 time.";
+
+	public static void main(String[] args) throws Exception {
+		int trips = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// -------------------------------------------------------------------------
+		// Initialize MTE license. If a license code is not required (e.g., trial
+		// mode), this can be skipped. This demo attempts to load the license info
+		// from the environment if required.
+		// -------------------------------------------------------------------------
+		if (!MteBase.initLicense("YOUR_COMPANY", "YOUR_LICENSE")) {
+			String company = System.getenv("MTE_COMPANY");
+			String license = System.getenv("MTE_LICENSE");
+			if (company == null || license == null || !MteBase.initLicense(company, license)) {
+				MteStatus status = MteStatus.mte_status_license_error;
+				System.err.println("License error (" + MteBase.getStatusName(status) + "): "
+						+ MteBase.getStatusDescription(status));
+				System.exit(status.getValue());
+			}
+		}
+
+		String conversation = UUID.randomUUID().toString();
+		String iv = UUID.randomUUID().toString();
+		CacheHelper cache = new CacheHelper();
+		try {
+			// ----------------------------------------------
+			// Seed both pipelines with the same fresh state
+			// ----------------------------------------------
+			MteEnc encoder = new MteEnc();
+			byte[] entropy = new byte[MteBase.getDrbgsEntropyMinBytes(encoder.getDrbg())];
+			Arrays.fill(entropy, (byte) '0');
+			encoder.setEntropy(entropy);
+			encoder.setNonce(0);
+			MteStatus status = encoder.instantiate(conversation);
+			if (status != MteStatus.mte_status_success) {
+				throw new Exception("Error creating Encoder: " + MteBase.getStatusDescription(status));
+			}
+			EncryptionHelper crypt = new EncryptionHelper();
+			String key = EncryptionHelper.SHA256(conversation, 64);
+			cache.Store(Constants.EncoderPrefix + "legacy", crypt.encrypt(encoder.saveStateB64(), key, iv));
+			cache.Store(Constants.EncoderPrefix + "binary", EncryptionHelper.sealState(encoder.saveState(), conversation, iv));
+			encoder.uninstantiate();
+
+			// -------------------------------------------
+			// First run of each is warm up and discarded
+			// -------------------------------------------
+			for (int r = 0; r <= runs; r++) {
+				Result legacy = run(trips, () -> legacyTrip(cache, crypt, conversation, iv));
+				Result binary = run(trips, () -> binaryTrip(cache, conversation, iv));
+				if (r == 0) {
+					continue;
+				}
+				System.out.println(String.format("run=%d legacy ns/trip=%.0f bytes/trip=%.0f | binary ns/trip=%.0f bytes/trip=%.0f",
+						r, legacy.NanosPerTrip, legacy.BytesPerTrip, binary.NanosPerTrip, binary.BytesPerTrip));
+			}
+		} finally {
+			cache.Close();
+		}
+	}
+
+	// ------------------------------------------------
+	// One trip of the original Base64 string pipeline
+	// ------------------------------------------------
+	private static void legacyTrip(CacheHelper cache, EncryptionHelper crypt, String conversation, String iv)
+			throws Exception {
+		String key = EncryptionHelper.SHA256(conversation, 64);
+		String encoderState = crypt.decrypt(cache.Get(Constants.EncoderPrefix + "legacy"), key, iv);
+		MteEnc encoder = new MteEnc();
+		if (encoder.restoreStateB64(encoderState) != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the legacy Encoder state.");
+		}
+		StrStatus encoded = encoder.encodeB64(Message);
+		if (encoded.status != MteStatus.mte_status_success) {
+			throw new Exception("Error encoding the message.");
+		}
+		cache.Store(Constants.EncoderPrefix + "legacy", crypt.encrypt(encoder.saveStateB64(), key, iv));
+	}
+
+	// -------------------------------------
+	// One trip of the binary state pipeline
+	// -------------------------------------
+	private static void binaryTrip(CacheHelper cache, String conversation, String iv) throws Exception {
+		byte[] encoderState = EncryptionHelper.openState(cache.GetBytes(Constants.EncoderPrefix + "binary"), conversation, iv);
+		MteEnc encoder = new MteEnc();
+		if (encoder.restoreState(encoderState) != MteStatus.mte_status_success) {
+			throw new Exception("Error restoring the binary Encoder state.");
+		}
+		Arrays.fill(encoderState, (byte) 0);
+		StrStatus encoded = encoder.encodeB64(Message);
+		if (encoded.status != MteStatus.mte_status_success) {
+			throw new Exception("Error encoding the message.");
+		}
+		encoderState = encoder.saveState();
+		cache.Store(Constants.EncoderPrefix + "binary", EncryptionHelper.sealState(encoderState, conversation, iv));
+		Arrays.fill(encoderState, (byte) 0);
+	}
+
+	/**
+	 * Time the given trip and count the bytes it allocates
+	 *
+	 * @param trips --> number of trips to run
+	 * @param trip  --> trip to run
+	 * @return nanoseconds and allocated bytes per trip
+	 */
+	private static Result run(int trips, Trip trip) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long startBytes = threads.getThreadAllocatedBytes(threadId);
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < trips; i++) {
+			trip.run();
+		}
+		Result result = new Result();
+		result.NanosPerTrip = (System.nanoTime() - startNanos) / (double) trips;
+		result.BytesPerTrip = (threads.getThreadAllocatedBytes(threadId) - startBytes) / (double) trips;
+		return result;
+	}
+
+	private interface Trip {
+		void run() throws Exception;
+	}
+
+	private static class Result {
+		double NanosPerTrip;
+		double BytesPerTrip;
+	}
+}
@@ -0,0 +1,157 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import multiClient.Models.Constants;
+import multiClient.Models.StateStoreType;
+
+//-------------------------------------------------------------------------
+// Compares the MteStateStore backends under the access pattern of the
+// client trips: read a conversation's sealed state and write a new one
+// of the same size. Each thread runs GetBytes + CompareAndSet trips on
+// random conversations, a lost CompareAndSet counts as a conflict.
+//
+// SOCKET runs against an in process StateStoreServer, MAPPED_FILE
+// against a scratch file that is removed afterwards. Reports trips per
+// second and latency percentiles per backend as JSON.
+//
+// Usage: StateStoreBenchmark [conversations] [threads] [seconds]
+//        [value bytes]
+// -------------------------------------------------------------------------
+
+public class StateStoreBenchmark {
+
+	private static final Gson _reportGson = new GsonBuilder().setPrettyPrinting().create();
+
+	public static void main(String[] args) throws Exception {
+		int conversations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int valueBytes = args.length > 3 ? Integer.parseInt(args[3]) : 600;
+
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("conversations", conversations);
+		report.put("threads", threads);
+		report.put("seconds", seconds);
+		report.put("valueBytes", valueBytes);
+		Map<String, Object> backends = new LinkedHashMap<String, Object>();
+		for (StateStoreType type : StateStoreType.values()) {
+			backends.put(type.name(), runBackend(type, conversations, threads, seconds, valueBytes));
+		}
+		report.put("backends", backends);
+		System.out.println(_reportGson.toJson(report));
+	}
+
+	/**
+	 * Fill one backend with a state per conversation, then run trips
+	 * on all threads for the given time
+	 */
+	private static Map<String, Object> runBackend(StateStoreType type, int conversations, int threads, int seconds,
+			int valueBytes) throws Exception {
+		StateStoreServer server = null;
+		File mappedFile = null;
+		MteStateStore store;
+		switch (type) {
+		case MAPPED_FILE:
+			mappedFile = File.createTempFile("mteStateBenchmark", ".map");
+			mappedFile.delete();
+			store = new MappedFileStateStore(mappedFile.getPath(), Math.max(1024, conversations),
+					Math.max(Constants.MappedStateValueBytes, valueBytes));
+			break;
+		case SOCKET:
+			server = new StateStoreServer(0);
+			server.start();
+			store = new SocketStateStore("127.0.0.1", server.getPort(), threads);
+			break;
+		default:
+			store = new CacheHelper();
+			break;
+		}
+
+		LatencyHistogram trips = new LatencyHistogram();
+		AtomicLong conflicts = new AtomicLong();
+		try {
+			for (int i = 0; i < conversations; i++) {
+				store.Store(Constants.EncoderPrefix + i, newValue(valueBytes));
+			}
+
+			long endNanos = System.nanoTime() + seconds * 1_000_000_000L;
+			List<Thread> workers = new ArrayList<Thread>();
+			MteStateStore target = store;
+			for (int t = 0; t < threads; t++) {
+				Thread worker = new Thread(() -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					while (System.nanoTime() < endNanos) {
+						String key = Constants.EncoderPrefix + random.nextInt(conversations);
+						long start = System.nanoTime();
+						byte[] current = target.GetBytes(key);
+						if (!target.CompareAndSet(key, current, newValue(valueBytes))) {
+							conflicts.incrementAndGet();
+						}
+						trips.record(System.nanoTime() - start);
+					}
+				}, "state-store-benchmark-" + t);
+				workers.add(worker);
+				worker.start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} finally {
+			store.Close();
+			if (server != null) {
+				server.stop();
+			}
+			if (mappedFile != null) {
+				mappedFile.delete();
+			}
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("tripsPerSecond", Math.round(trips.getCount() / (double) seconds * 10) / 10.0);
+		result.put("conflicts", conflicts.get());
+		result.put("latencyMicros", trips.toMicrosSummary());
+		return result;
+	}
+
+	private static byte[] newValue(int valueBytes) {
+		byte[] value = new byte[valueBytes];
+		ThreadLocalRandom.current().nextBytes(value);
+		return value;
+	}
+}
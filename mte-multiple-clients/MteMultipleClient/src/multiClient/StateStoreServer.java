@@ -0,0 +1,230 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import multiClient.Models.Constants;
+
+//-------------------------------------------------------------------------
+// Stand-in for a shared state store such as a Redis or Memcached node,
+// so SocketStateStore can be tried without any other service. Keeps the
+// values in memory and serves each connection on its own thread.
+//
+// Every request is an op code followed by its fields, keys are written
+// with writeUTF and values as a length (-1 for null) and the bytes:
+//
+//   GET      key                  --> value
+//   PUT      key value            --> 1, a null value deletes the key
+//   CAS      key expected value   --> 1 stored / 0 not stored
+//   GET_ALL  count key...         --> count value...
+//   PUT_ALL  count (key value)... --> 1
+//   DELETE   key                  --> 1
+//
+// Usage: StateStoreServer [port]
+// -------------------------------------------------------------------------
+
+public class StateStoreServer {
+
+	static final byte OP_GET = 1;
+	static final byte OP_PUT = 2;
+	static final byte OP_CAS = 3;
+	static final byte OP_GET_ALL = 4;
+	static final byte OP_PUT_ALL = 5;
+	static final byte OP_DELETE = 6;
+
+	private final ConcurrentHashMap<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections;
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : Constants.StateStorePort;
+		StateStoreServer server = new StateStoreServer(port);
+		server.start();
+		System.out.println("MTE state store listening on 127.0.0.1:" + server.getPort());
+	}
+
+	/**
+	 * Create the server on the loopback interface
+	 *
+	 * @param port --> port to listen on, 0 picks a free port
+	 * @throws IOException
+	 */
+	public StateStoreServer(int port) throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		connections = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "state-store-connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start accepting connections, the accept thread keeps the
+	 * process running until stop is called
+	 */
+	public void start() {
+		new Thread(this::acceptLoop, "state-store-accept").start();
+	}
+
+	public void stop() throws IOException {
+		serverSocket.close();
+		connections.shutdownNow();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connections.execute(() -> serve(socket));
+			} catch (IOException ex) {
+				if (!serverSocket.isClosed()) {
+					System.out.println("State store accept failed: " + ex.getMessage());
+				}
+			}
+		}
+	}
+
+	//-----------------------------------------------
+	// Answer requests until the client disconnects
+	//-----------------------------------------------
+	private void serve(Socket socket) {
+		try (Socket client = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+			while (true) {
+				byte op;
+				try {
+					op = in.readByte();
+				} catch (EOFException ex) {
+					return;
+				}
+				switch (op) {
+				case OP_GET:
+					writeValue(out, values.get(in.readUTF()));
+					break;
+				case OP_PUT:
+					put(in.readUTF(), readValue(in));
+					out.writeByte(1);
+					break;
+				case OP_CAS: {
+					String key = in.readUTF();
+					byte[] expected = readValue(in);
+					byte[] value = readValue(in);
+					boolean[] stored = new boolean[1];
+					values.compute(key, (k, current) -> {
+						stored[0] = Arrays.equals(current, expected);
+						return stored[0] ? value : current;
+					});
+					out.writeByte(stored[0] ? 1 : 0);
+					break;
+				}
+				case OP_GET_ALL: {
+					int count = in.readInt();
+					String[] keys = new String[count];
+					for (int i = 0; i < count; i++) {
+						keys[i] = in.readUTF();
+					}
+					for (String key : keys) {
+						writeValue(out, values.get(key));
+					}
+					break;
+				}
+				case OP_PUT_ALL: {
+					int count = in.readInt();
+					for (int i = 0; i < count; i++) {
+						put(in.readUTF(), readValue(in));
+					}
+					out.writeByte(1);
+					break;
+				}
+				case OP_DELETE:
+					values.remove(in.readUTF());
+					out.writeByte(1);
+					break;
+				default:
+					throw new IOException("Unknown state store op " + op);
+				}
+				out.flush();
+			}
+		} catch (IOException ex) {
+			if (!serverSocket.isClosed()) {
+				System.out.println("State store connection closed: " + ex.getMessage());
+			}
+		}
+	}
+
+	//-----------------------------------------------
+	// A null value deletes the key, the same as a
+	// CAS to null, since the map holds no nulls
+	//-----------------------------------------------
+	private void put(String key, byte[] value) {
+		if (value == null) {
+			values.remove(key);
+		} else {
+			values.put(key, value);
+		}
+	}
+
+	static byte[] readValue(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		in.readFully(value);
+		return value;
+	}
+
+	static void writeValue(DataOutputStream out, byte[] value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(value.length);
+		out.write(value);
+	}
+}
@@ -0,0 +1,78 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+//-------------------------------------------------------------------------
+// Fixed set of locks shared out by conversation id. Work on one
+// conversation is serialized, different conversations only wait on each
+// other when their ids land on the same stripe. Taking a stripe costs no
+// allocation and the set never grows with the number of conversations.
+// -------------------------------------------------------------------------
+
+public class StripedLocks {
+	private final ReentrantLock[] stripes;
+	private final LockContention contention = new LockContention();
+
+	/**
+	 * Create the stripes
+	 *
+	 * @param stripes --> number of locks, more means fewer collisions
+	 */
+	public StripedLocks(int stripes) {
+		this.stripes = new ReentrantLock[Math.max(1, stripes)];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Take the stripe of a key, give it back with unlock
+	 *
+	 * @param key --> conversation id
+	 * @return the locked stripe
+	 */
+	public ReentrantLock Lock(String key) {
+		ReentrantLock stripe = stripes[stripeOf(key)];
+		contention.Lock(stripe);
+		return stripe;
+	}
+
+	public LockContention getContention() {
+		return contention;
+	}
+
+	//------------------------------------------------------------
+	// Spread the hash with the golden ratio so ids that differ in
+	// a few characters do not share stripes
+	//------------------------------------------------------------
+	private int stripeOf(String key) {
+		long mixed = (key.hashCode() * 0x9E3779B97F4A7C15L) >>> 32;
+		return (int) (mixed % stripes.length);
+	}
+}
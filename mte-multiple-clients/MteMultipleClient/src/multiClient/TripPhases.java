@@ -0,0 +1,64 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//-------------------------------------------------------------------------
+// Latency histograms for each phase of a client trip, filled in while
+// the load test runs. State decrypt, restore, save and state encrypt are
+// only paid when a pair is not live or is written to the state store, so
+// their counts are lower than the encode/HTTP/decode counts.
+// -------------------------------------------------------------------------
+
+class TripPhases {
+	final LatencyHistogram StateDecrypt = new LatencyHistogram();
+	final LatencyHistogram Restore = new LatencyHistogram();
+	final LatencyHistogram Encode = new LatencyHistogram();
+	final LatencyHistogram Http = new LatencyHistogram();
+	final LatencyHistogram Decode = new LatencyHistogram();
+	final LatencyHistogram Save = new LatencyHistogram();
+	final LatencyHistogram StateEncrypt = new LatencyHistogram();
+
+	/**
+	 * Summary of every phase in microseconds
+	 *
+	 * @return phase name to count and percentiles, in trip order
+	 */
+	Map<String, Object> toMicrosSummary() {
+		Map<String, Object> phases = new LinkedHashMap<String, Object>();
+		phases.put("stateDecrypt", StateDecrypt.toMicrosSummary());
+		phases.put("restore", Restore.toMicrosSummary());
+		phases.put("encode", Encode.toMicrosSummary());
+		phases.put("httpRoundTrip", Http.toMicrosSummary());
+		phases.put("decode", Decode.toMicrosSummary());
+		phases.put("save", Save.toMicrosSummary());
+		phases.put("stateEncrypt", StateEncrypt.toMicrosSummary());
+		return phases;
+	}
+}
@@ -0,0 +1,90 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+//-------------------------------------------------------------------------
+// BatchEnvelope round trips and the bounds Unpack enforces on envelopes
+// coming from the other side.
+// -------------------------------------------------------------------------
+
+class BatchEnvelopeTest {
+
+	@Test
+	void packThenUnpackKeepsOrderAndContent() {
+		List<byte[]> messages = Arrays.asList(new byte[] { 1, 2, 3 }, new byte[0], new byte[] { 4 });
+		byte[] envelope = BatchEnvelope.Pack(messages);
+		assertEquals(4 + 4 + 3 + 4 + 4 + 1, envelope.length);
+
+		List<byte[]> unpacked = BatchEnvelope.Unpack(envelope, 3);
+		assertEquals(3, unpacked.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assertArrayEquals(messages.get(i), unpacked.get(i));
+		}
+	}
+
+	@Test
+	void messageCountOutsideBoundsIsRejected() {
+		byte[] envelope = BatchEnvelope.Pack(Arrays.asList(new byte[] { 1 }, new byte[] { 2 }));
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(envelope, 1));
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(ByteBuffer.allocate(4).putInt(0).array(), 8));
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(ByteBuffer.allocate(4).putInt(-1).array(), 8));
+	}
+
+	@Test
+	void shortOrTruncatedEnvelopesAreRejected() {
+		byte[] envelope = BatchEnvelope.Pack(Arrays.asList(new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }));
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(new byte[3], 8));
+		for (int length = 4; length < envelope.length; length++) {
+			byte[] truncated = Arrays.copyOf(envelope, length);
+			assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(truncated, 8), "length " + length);
+		}
+	}
+
+	@Test
+	void badMessageLengthIsRejected() {
+		byte[] negative = ByteBuffer.allocate(9).putInt(1).putInt(-1).put((byte) 0).array();
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(negative, 8));
+		byte[] tooLong = ByteBuffer.allocate(9).putInt(1).putInt(2).put((byte) 0).array();
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(tooLong, 8));
+	}
+
+	@Test
+	void trailingBytesAreRejected() {
+		byte[] envelope = BatchEnvelope.Pack(Arrays.asList(new byte[] { 1 }));
+		assertThrows(IllegalArgumentException.class, () -> BatchEnvelope.Unpack(Arrays.copyOf(envelope, envelope.length + 1), 8));
+	}
+}
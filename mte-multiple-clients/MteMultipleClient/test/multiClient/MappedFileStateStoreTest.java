@@ -0,0 +1,248 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+//-------------------------------------------------------------------------
+// MappedFileStateStore reads and writes against a file in a temporary
+// directory, closing and reopening it where a restart matters.
+// -------------------------------------------------------------------------
+
+class MappedFileStateStoreTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void compareAndSetOnlyReplacesTheExpectedValue() throws IOException {
+		MappedFileStateStore store = open(4, 64);
+		try {
+			byte[] first = { 1, 2, 3 };
+			byte[] second = { 4, 5 };
+			assertFalse(store.CompareAndSet("key", second, first));
+			assertTrue(store.CompareAndSet("key", null, first));
+			assertFalse(store.CompareAndSet("key", null, second));
+			assertFalse(store.CompareAndSet("key", second, second));
+			assertArrayEquals(first, store.GetBytes("key"));
+			assertTrue(store.CompareAndSet("key", first, second));
+			assertArrayEquals(second, store.GetBytes("key"));
+		} finally {
+			store.Close();
+		}
+	}
+
+	@Test
+	void valuesAndSessionIVSurviveAReopen() throws IOException {
+		MappedFileStateStore store = open(4, 64);
+		store.Store("a", new byte[] { 1 });
+		store.Store("b", new byte[] { 2, 2 });
+		store.Store("c", new byte[] { 3 });
+		store.Delete("c");
+		store.SetSessionIV("session-iv");
+		store.Close();
+
+		MappedFileStateStore reopened = open(1024, 8);
+		try {
+			assertArrayEquals(new byte[] { 2, 2 }, reopened.GetBytes("b"));
+			assertNull(reopened.GetBytes("c"));
+			assertEquals("session-iv", reopened.GetSessionIV());
+			assertEquals(Arrays.asList("a", "b"), sorted(reopened.Keys()));
+			assertEquals(Collections.singleton("a"), reopened.GetAll(Arrays.asList("a", "c")).keySet());
+		} finally {
+			reopened.Close();
+		}
+	}
+
+	@Test
+	void corruptValueFailsItsCrcAndReadsAsMissing() throws IOException {
+		byte[] value = new byte[40];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = (byte) (0xA0 + i);
+		}
+		MappedFileStateStore store = open(1, 64);
+		store.Store("torn", value);
+		store.Store("whole", new byte[] { 9 });
+		store.Close();
+
+		//-----------------------------------------------
+		// Flip one byte in the middle of the stored value
+		//-----------------------------------------------
+		byte[] file = Files.readAllBytes(file());
+		int at = indexOf(file, value);
+		assertTrue(at > 0);
+		try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) ~value[20] }), at + 20);
+		}
+
+		MappedFileStateStore reopened = open(1, 64);
+		try {
+			assertNull(reopened.GetBytes("torn"));
+			assertArrayEquals(new byte[] { 9 }, reopened.GetBytes("whole"));
+			assertEquals(Collections.singletonList("whole"), reopened.Keys());
+			assertFalse(reopened.CompareAndSet("torn", value, new byte[] { 1 }));
+			assertTrue(reopened.CompareAndSet("torn", null, new byte[] { 1 }));
+		} finally {
+			reopened.Close();
+		}
+	}
+
+	@Test
+	void tornOverwriteKeepsTheLastGoodValue() throws IOException {
+		byte[] good = new byte[40];
+		byte[] next = new byte[40];
+		Arrays.fill(good, (byte) 0x11);
+		Arrays.fill(next, (byte) 0x22);
+		MappedFileStateStore store = open(1, 64);
+		store.Store("key", good);
+		store.Store("key", next);
+		store.Close();
+
+		//-----------------------------------------------
+		// Crash while the new copy was being written:
+		// the old slot is still used, the new one is not
+		// and holds half a value
+		//-----------------------------------------------
+		byte[] file = Files.readAllBytes(file());
+		int oldSlot = indexOf(file, good) - MappedFileStateStore.SlotHeaderBytes - MappedFileStateStore.KeyBytes;
+		int newSlot = indexOf(file, next) - MappedFileStateStore.SlotHeaderBytes - MappedFileStateStore.KeyBytes;
+		assertTrue(oldSlot > 0 && newSlot > 0 && oldSlot != newSlot);
+		assertEquals(0, file[oldSlot]);
+		writeByte(oldSlot, 1);
+		writeByte(newSlot, 0);
+		writeByte(newSlot + MappedFileStateStore.SlotHeaderBytes + MappedFileStateStore.KeyBytes + 20, 0);
+
+		MappedFileStateStore reopened = open(1, 64);
+		try {
+			assertArrayEquals(good, reopened.GetBytes("key"));
+			assertEquals(Collections.singletonList("key"), reopened.Keys());
+		} finally {
+			reopened.Close();
+		}
+
+		//-----------------------------------------------
+		// Crash after the new copy was marked used but
+		// before the old one was cleared
+		//-----------------------------------------------
+		reopened = open(1, 64);
+		reopened.Store("key", next);
+		reopened.Close();
+		file = Files.readAllBytes(file());
+		oldSlot = indexOf(file, good) - MappedFileStateStore.SlotHeaderBytes - MappedFileStateStore.KeyBytes;
+		writeByte(oldSlot, 1);
+
+		reopened = open(1, 64);
+		try {
+			assertArrayEquals(next, reopened.GetBytes("key"));
+			assertEquals(Collections.singletonList("key"), reopened.Keys());
+			assertTrue(reopened.CompareAndSet("key", next, new byte[] { 3 }));
+			assertArrayEquals(new byte[] { 3 }, reopened.GetBytes("key"));
+			reopened.Delete("key");
+			assertNull(reopened.GetBytes("key"));
+			assertTrue(reopened.Keys().isEmpty());
+		} finally {
+			reopened.Close();
+		}
+	}
+
+	@Test
+	void sizesAreChecked() throws IOException {
+		MappedFileStateStore store = open(1, 16);
+		try {
+			assertThrows(IllegalArgumentException.class, () -> store.Store("key", new byte[17]));
+			char[] longKey = new char[MappedFileStateStore.KeyBytes + 1];
+			Arrays.fill(longKey, 'k');
+			assertThrows(IllegalArgumentException.class, () -> store.Store(new String(longKey), new byte[1]));
+			for (int i = 0; i < MappedFileStateStore.SlotsPerBucket - 1; i++) {
+				store.Store("key" + i, new byte[1]);
+			}
+			assertThrows(IllegalStateException.class, () -> store.Store("one more", new byte[1]));
+			store.Store("key0", new byte[] { 2 });
+			assertArrayEquals(new byte[] { 2 }, store.GetBytes("key0"));
+		} finally {
+			store.Close();
+		}
+	}
+
+	@Test
+	void fileWithAnotherLayoutIsRefused() throws IOException {
+		open(4, 64).Close();
+		try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).putInt(0, MappedFileStateStore.SlotsPerBucket * 2), 12);
+		}
+		assertThrows(IOException.class, () -> open(4, 64));
+
+		Files.write(file(), new byte[64]);
+		assertThrows(IOException.class, () -> open(4, 64));
+	}
+
+	private MappedFileStateStore open(int buckets, int valueBytes) throws IOException {
+		return new MappedFileStateStore(file().toString(), buckets, valueBytes);
+	}
+
+	private Path file() {
+		return dir.resolve("states.map");
+	}
+
+	private void writeByte(long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) value }), position);
+		}
+	}
+
+	private static List<String> sorted(List<String> keys) {
+		Collections.sort(keys);
+		return keys;
+	}
+
+	private static int indexOf(byte[] haystack, byte[] needle) {
+		for (int i = 0; i + needle.length <= haystack.length; i++) {
+			if (Arrays.equals(Arrays.copyOfRange(haystack, i, i + needle.length), needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
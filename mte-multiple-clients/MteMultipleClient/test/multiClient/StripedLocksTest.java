@@ -0,0 +1,109 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package multiClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+
+//-------------------------------------------------------------------------
+// StripedLocks hands out one lock per key, spreads keys over the stripes
+// and counts a taker that had to wait.
+// -------------------------------------------------------------------------
+
+class StripedLocksTest {
+
+	@Test
+	void sameKeyGetsTheSameStripe() {
+		StripedLocks locks = new StripedLocks(64);
+		ReentrantLock first = locks.Lock("conversation-1");
+		ReentrantLock again = locks.Lock("conversation-1");
+		try {
+			assertSame(first, again);
+			assertEquals(2, first.getHoldCount());
+		} finally {
+			again.unlock();
+			first.unlock();
+		}
+		assertEquals(2, locks.getContention().getAcquired());
+		assertEquals(0, locks.getContention().getContended());
+	}
+
+	@Test
+	void keysSpreadOverTheStripes() {
+		StripedLocks locks = new StripedLocks(16);
+		Set<ReentrantLock> used = new HashSet<ReentrantLock>();
+		for (int i = 0; i < 256; i++) {
+			ReentrantLock stripe = locks.Lock("conversation-" + i);
+			stripe.unlock();
+			used.add(stripe);
+		}
+		assertEquals(16, used.size());
+	}
+
+	@Test
+	void atLeastOneStripe() {
+		StripedLocks locks = new StripedLocks(0);
+		ReentrantLock a = locks.Lock("a");
+		a.unlock();
+		ReentrantLock b = locks.Lock("b");
+		b.unlock();
+		assertSame(a, b);
+	}
+
+	@Test
+	void waitingTakerIsCounted() throws Exception {
+		StripedLocks locks = new StripedLocks(1);
+		ReentrantLock held = locks.Lock("a");
+		CountDownLatch waiting = new CountDownLatch(1);
+		Thread other = new Thread(() -> {
+			waiting.countDown();
+			locks.Lock("b").unlock();
+		});
+		other.start();
+		waiting.await();
+		while (!held.hasQueuedThreads()) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(5);
+		held.unlock();
+		other.join();
+
+		LockContention contention = locks.getContention();
+		assertEquals(2, contention.getAcquired());
+		assertEquals(1, contention.getContended());
+		assertTrue(contention.getMaxWaitNanos() > 0);
+		assertTrue(contention.getWaitNanos() >= contention.getMaxWaitNanos());
+	}
+}
@@ -1,6 +1,7 @@
 module MteConsoleUploadFile {
 	requires com.google.gson;
 	requires eclypses.ecdh;
+	requires java.net.http;
 	
 	exports uploadClient.Models to com.google.gson;
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+//**************************************************************************************************
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, subLicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+//**************************************************************************************************
+
+package uploadClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import uploadClient.Models.*;
+
+//-------------------------------------------------------------------------
+// Shared HTTP transport for the handshake, login and upload calls. One
+// HttpClient is kept for the whole process: its connections stay alive
+// between calls and HTTP/2 multiplexes concurrent requests over them, so
+// the TCP and TLS setup is paid once instead of on every request. Every
+// request has a connect and a read deadline.
+// -------------------------------------------------------------------------
+
+public class HttpTransport {
+
+	private static final HttpClient _httpClient = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.connectTimeout(Duration.ofSeconds(Constants.ConnectTimeoutSeconds))
+			.build();
+
+	/**
+	 * The shared client, for callers that send asynchronously
+	 */
+	public static HttpClient getClient() {
+		return _httpClient;
+	}
+
+	/**
+	 * Start a request with the read deadline and default headers set
+	 * 
+	 * @param connectionUrl --> Connection URL
+	 * @param clientId      --> Current client id
+	 * @param contentType   --> http content type
+	 * @return request builder, the caller sets the method and body
+	 */
+	public static HttpRequest.Builder NewRequest(String connectionUrl, String clientId, String contentType) {
+		return HttpRequest.newBuilder(URI.create(connectionUrl))
+				.timeout(Duration.ofSeconds(Constants.RequestTimeoutSeconds))
+				.header("Content-Type", contentType)
+				.header(Constants.ClientIdHeader, clientId);
+	}
+
+	/**
+	 * Start an upload request. It has no read deadline, a streamed
+	 * upload is bounded only by the connect timeout and the server.
+	 * 
+	 * @param connectionUrl --> Connection URL
+	 * @param clientId      --> Current client id
+	 * @param contentType   --> http content type
+	 * @return request builder, the caller sets the method and body
+	 */
+	public static HttpRequest.Builder NewUploadRequest(String connectionUrl, String clientId, String contentType) {
+		return HttpRequest.newBuilder(URI.create(connectionUrl))
+				.header("Content-Type", contentType)
+				.header(Constants.ClientIdHeader, clientId);
+	}
+
+	/**
+	 * Make the Http Call
+	 * 
+	 * @param connectionUrl    --> Connection URL
+	 * @param connectionMethod --> Connection Method
+	 * @param clientId         --> Current client id
+	 * @param contentType      --> http content type
+	 * @param payload          --> http call payload
+	 * @return full response body, or a serialized error ResponseModel
+	 */
+	public static String MakeHttpCall(String connectionUrl, String connectionMethod, String clientId,
+			String contentType, String payload) {
+		try {
+			HttpRequest.BodyPublisher body = (payload != null && !payload.isEmpty())
+					? HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8)
+					: HttpRequest.BodyPublishers.noBody();
+			HttpRequest request = NewRequest(connectionUrl, clientId, contentType)
+					.method(connectionMethod, body)
+					.build();
+
+			// -----------------------------------------------------
+			// The body is streamed in and read to the end so the
+			// connection can go straight back to the pool
+			// -----------------------------------------------------
+			HttpResponse<InputStream> response = _httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+			String returnPayload;
+			try (InputStream in = response.body()) {
+				returnPayload = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+
+			// --------------------------------------------------
+			// If we did not get a good connection return error
+			// --------------------------------------------------
+			if (response.statusCode() < 200 || response.statusCode() > 299) {
+				return ErrorPayload("Failed : HTTP error code : " + response.statusCode(), Constants.RC_HTTP_ERROR);
+			}
+			return returnPayload;
+
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+			return ErrorPayload("Invalid URL in MakeHttpCall : " + e.getMessage(), Constants.RC_HTTP_EXCEPTION);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return ErrorPayload("IOException in MakeHttpCall : " + e.getMessage(), Constants.RC_HTTP_EXCEPTION);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ErrorPayload("Interrupted in MakeHttpCall", Constants.RC_HTTP_EXCEPTION);
+		}
+	}
+
+	// ------------------------------------------------------
+	// Create error response to send back to calling method
+	// ------------------------------------------------------
+	private static String ErrorPayload(String message, String resultCode) {
+		ResponseModel<Object> errorResponse = new ResponseModel<Object>();
+		errorResponse.Data = null;
+		errorResponse.Message = message;
+		errorResponse.ResultCode = resultCode;
+		errorResponse.Success = false;
+		return FileUploader.gson.toJson(errorResponse);
+	}
+}
@@ -26,6 +26,8 @@
 
 package uploadClient.Models;
 
+import com.eclypses.ecdh.EclypsesECDH;
+
 public class Constants {
 	
     //----------------------
@@ -39,11 +41,29 @@ public class Constants {
     // ------------------
     // use this URL to run against C# MteDemo API locally
     //public static String RestAPIName = "http://localhost:52603";
-    // Use this URL to run against Eclypses public API
-    public static String RestAPIName = "https://dev-echo.eclypses.com";
+    // Use this URL to run against Eclypses public API, or pass
+    // -Dmte.restApi=<url> to run against the MteLocalServer
+    public static String RestAPIName = System.getProperty("mte.restApi", "https://dev-echo.eclypses.com");
     public static String JsonContentType = "application/json";
     public static String TextContentType = "text/plain";
     
+    //-------------------------------
+    // Http connect and read timeouts
+    //-------------------------------
+    public static int ConnectTimeoutSeconds = 10;
+    public static int RequestTimeoutSeconds = 30;
+    
+    //------------------------------------------------------
+    // Number of pre-generated key pairs kept for handshakes
+    //------------------------------------------------------
+    public static int KeyPairPoolSize = 16;
+
+    //-----------------------------------------------------------
+    // Key agreement for handshakes. X25519 needs a server that
+    // accepts 32 byte raw public keys.
+    //-----------------------------------------------------------
+    public static EclypsesECDH.Mode KeyAgreementMode = EclypsesECDH.Mode.P256;
+    
     //---------------
     // RestApi Routes
     //---------------